@@ -0,0 +1,124 @@
+package com.particle_life;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+/**
+ * Version of {@link ParticleStore} that keeps the particles outside the Java heap, used by {@link OffHeapPhysics}.
+ * <p>Each attribute is stored in its own {@link MemorySegment}, e.g. <code>x.getAtIndex(JAVA_DOUBLE, i)</code>
+ * is the x-coordinate of particle <code>i</code>.
+ * Only stores x and y, as {@link Physics} doesn't simulate the z-axis yet either.
+ * <p>The memory is released by {@link #close()}, after which the segments must not be accessed anymore.
+ */
+public class OffHeapParticleStore implements AutoCloseable {
+
+    private final Arena arena;
+    private final int size;
+
+    public final MemorySegment x;
+    public final MemorySegment y;
+    public final MemorySegment vx;
+    public final MemorySegment vy;
+    public final MemorySegment type;
+    /**
+     * @see ParticleStore#id
+     */
+    public final MemorySegment id;
+
+    /**
+     * Allocates zeroed memory for <code>size</code> particles.
+     * The memory can be accessed from any thread.
+     */
+    public OffHeapParticleStore(int size) {
+        this.size = size;
+        arena = Arena.ofShared();
+        x = arena.allocate(JAVA_DOUBLE, size);
+        y = arena.allocate(JAVA_DOUBLE, size);
+        vx = arena.allocate(JAVA_DOUBLE, size);
+        vy = arena.allocate(JAVA_DOUBLE, size);
+        type = arena.allocate(JAVA_INT, size);
+        id = arena.allocate(JAVA_INT, size);
+        resetIds();
+    }
+
+    /**
+     * @return the number of particles in this store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a store with <code>n</code> particles and closes this one.
+     * The first <code>min(n, size())</code> particles are kept,
+     * new particles are initialized with zeros.
+     *
+     * @param n the new number of particles
+     */
+    public OffHeapParticleStore resize(int n) {
+        if (n == size) return this;
+        OffHeapParticleStore resized = new OffHeapParticleStore(n);
+        long common = Math.min(n, size);
+        MemorySegment.copy(x, 0, resized.x, 0, common * Double.BYTES);
+        MemorySegment.copy(y, 0, resized.y, 0, common * Double.BYTES);
+        MemorySegment.copy(vx, 0, resized.vx, 0, common * Double.BYTES);
+        MemorySegment.copy(vy, 0, resized.vy, 0, common * Double.BYTES);
+        MemorySegment.copy(type, 0, resized.type, 0, common * Integer.BYTES);
+        MemorySegment.copy(id, 0, resized.id, 0, common * Integer.BYTES);
+        close();
+        return resized;
+    }
+
+    /**
+     * Numbers the particles from 0 to <code>size() - 1</code> in their current order.
+     */
+    public void resetIds() {
+        for (int i = 0; i < size; i++) {
+            id.setAtIndex(JAVA_INT, i, i);
+        }
+    }
+
+    /**
+     * Copies the particle at index <code>i</code> to index <code>j</code> of <code>dest</code>.
+     */
+    void copy(int i, OffHeapParticleStore dest, int j) {
+        dest.x.setAtIndex(JAVA_DOUBLE, j, x.getAtIndex(JAVA_DOUBLE, i));
+        dest.y.setAtIndex(JAVA_DOUBLE, j, y.getAtIndex(JAVA_DOUBLE, i));
+        dest.vx.setAtIndex(JAVA_DOUBLE, j, vx.getAtIndex(JAVA_DOUBLE, i));
+        dest.vy.setAtIndex(JAVA_DOUBLE, j, vy.getAtIndex(JAVA_DOUBLE, i));
+        dest.type.setAtIndex(JAVA_INT, j, type.getAtIndex(JAVA_INT, i));
+        dest.id.setAtIndex(JAVA_INT, j, id.getAtIndex(JAVA_INT, i));
+    }
+
+    void swap(int i, int j) {
+        swapDouble(x, i, j);
+        swapDouble(y, i, j);
+        swapDouble(vx, i, j);
+        swapDouble(vy, i, j);
+        swapInt(type, i, j);
+        swapInt(id, i, j);
+    }
+
+    private static void swapDouble(MemorySegment segment, int i, int j) {
+        double h = segment.getAtIndex(JAVA_DOUBLE, i);
+        segment.setAtIndex(JAVA_DOUBLE, i, segment.getAtIndex(JAVA_DOUBLE, j));
+        segment.setAtIndex(JAVA_DOUBLE, j, h);
+    }
+
+    private static void swapInt(MemorySegment segment, int i, int j) {
+        int h = segment.getAtIndex(JAVA_INT, i);
+        segment.setAtIndex(JAVA_INT, i, segment.getAtIndex(JAVA_INT, j));
+        segment.setAtIndex(JAVA_INT, j, h);
+    }
+
+    /**
+     * Releases the memory. Must not be called while another thread accesses the segments.
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
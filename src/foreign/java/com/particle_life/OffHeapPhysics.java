@@ -0,0 +1,467 @@
+package com.particle_life;
+
+import org.joml.Vector3d;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+/**
+ * Variant of {@link Physics} that keeps the particles outside the Java heap,
+ * using the Foreign Function & Memory API.
+ * <p>With a very large number of particles (e.g. 100 million), the particles don't have to fit into the heap,
+ * and the garbage collector doesn't have to scan or move them, so pauses stay short
+ * and the memory usage is predictable: about 80 bytes per particle (two copies of the particles for sorting).
+ * <p>The results are the same as with {@link Physics} (with array storage) up to floating-point rounding.
+ * Compared to {@link Physics}, the following is not supported:
+ * container subdivision, symmetric pairs, neighbor lists, the SIMD kernel and update listeners.
+ * <p>The off-heap memory is only released by {@link #shutdown(long)} or {@link #close()},
+ * so one of them must be called when the simulation is no longer needed.
+ * <p>This class is only compiled with <code>-PforeignMemory</code>, see <code>build.gradle</code>.
+ */
+public class OffHeapPhysics implements AutoCloseable {
+
+    public PhysicsSettings settings = new PhysicsSettings();
+
+    private OffHeapParticleStore store = new OffHeapParticleStore(0);
+    private OffHeapParticleStore storeBuffer = null;
+    private final ParticleControl control = new OffHeapStoreControl();
+
+    // containers with an edge length of at least rmax:
+    private int nx = 0;
+    private int ny = 0;
+    private boolean containersWrap;
+    /**
+     * <code>containers[ci]</code> is the index after the last particle in container <code>ci</code>.
+     * There are much fewer containers than particles, so they are kept on the heap.
+     */
+    private int[] containers;
+    /**
+     * Doesn't buffer the container of each particle, so that no memory per particle is needed on the heap.
+     */
+    private final ContainerSorter containerSorter = new ContainerSorter(false);
+    /**
+     * The columns and rows of the containers that must be checked for each column / row.
+     * Only contains each column / row once, even if there are less than 3 columns / rows.
+     */
+    private int[][] neighborColumns;
+    private int[][] neighborRows;
+
+    /**
+     * Copy of {@link PhysicsSettings#matrix} in row-major order, taken at the beginning of each update.
+     */
+    private double[] matrixValues = new double[0];
+    private int matrixSize = 0;
+
+    /**
+     * If this also implements {@link PrimitiveAccelerator}, its allocation-free method is used,
+     * see {@link Physics#accelerator}.
+     */
+    public Accelerator accelerator;
+    private PrimitiveAccelerator primitiveAccelerator;
+    private final ThreadLocal<double[]> accelerationBuffers = ThreadLocal.withInitial(() -> new double[3]);
+    public MatrixGenerator matrixGenerator;
+    public PositionSetter positionSetter;
+    /**
+     * @see Physics#typeSetter
+     */
+    public TypeSetter typeSetter;
+
+    public int preferredNumberOfThreads = 12;
+    private final LoadDistributor loadDistributor = new LoadDistributor();
+    private boolean closed = false;
+
+    /**
+     * This is used to stop the updating mid-process (e.g. when the particle count changes)
+     */
+    private final AtomicBoolean updateThreadsShouldRun = new AtomicBoolean(false);
+
+    public OffHeapPhysics(Accelerator accelerator) {
+        this(accelerator, new DefaultPositionSetter(), new DefaultMatrixGenerator(), new DefaultTypeSetter());
+    }
+
+    public OffHeapPhysics(Accelerator accelerator,
+                          PositionSetter positionSetter,
+                          MatrixGenerator matrixGenerator,
+                          TypeSetter typeSetter) {
+
+        this.accelerator = accelerator;
+        this.positionSetter = positionSetter;
+        this.matrixGenerator = matrixGenerator;
+        this.typeSetter = typeSetter;
+
+        generateMatrix();
+        setParticleCount(10000);  // uses current position setter to create particles
+    }
+
+    /**
+     * Copies the settings and the particles of <code>physics</code>,
+     * including the {@link ParticleStore#id particle ids} if array storage is enabled.
+     * The accelerator, the position setter and so on are not copied.
+     */
+    public void copyFrom(Physics physics) {
+        settings = physics.settings.deepCopy();
+        int n = physics.getParticleCount();
+        store.close();
+        store = new OffHeapParticleStore(n);
+        ParticleStore s = physics.getParticleStore();
+        for (int i = 0; i < n; i++) {
+            if (s != null) {
+                set(i, s.x[i], s.y[i], s.vx[i], s.vy[i], s.type[i]);
+                store.id.setAtIndex(JAVA_INT, i, s.id[i]);
+            } else {
+                Particle p = physics.particles[i];
+                set(i, p.position.x, p.position.y, p.velocity.x, p.velocity.y, p.type);
+            }
+        }
+    }
+
+    /**
+     * Replaces the particles of <code>physics</code> with the particles of this simulation,
+     * ordered by their {@link ParticleStore#id ids}. This enables array storage for <code>physics</code>.
+     * The settings are not copied.
+     */
+    public void copyTo(Physics physics) {
+        final OffHeapParticleStore s = store;
+        final int n = s.size();
+        ParticleStore target = new ParticleStore(n);
+        for (int i = 0; i < n; i++) {
+            int k = s.id.getAtIndex(JAVA_INT, i);
+            target.x[k] = s.x.getAtIndex(JAVA_DOUBLE, i);
+            target.y[k] = s.y.getAtIndex(JAVA_DOUBLE, i);
+            target.vx[k] = s.vx.getAtIndex(JAVA_DOUBLE, i);
+            target.vy[k] = s.vy.getAtIndex(JAVA_DOUBLE, i);
+            target.type[k] = s.type.getAtIndex(JAVA_INT, i);
+        }
+        physics.setArrayStorage(true);
+        physics.setParticleStore(target);
+    }
+
+    private void set(int i, double x, double y, double vx, double vy, int type) {
+        store.x.setAtIndex(JAVA_DOUBLE, i, x);
+        store.y.setAtIndex(JAVA_DOUBLE, i, y);
+        store.vx.setAtIndex(JAVA_DOUBLE, i, vx);
+        store.vy.setAtIndex(JAVA_DOUBLE, i, vy);
+        store.type.setAtIndex(JAVA_INT, i, type);
+    }
+
+    /**
+     * Calculate the next step in the simulation.
+     *
+     * @see Physics#update()
+     */
+    public void update() {
+        if (closed) {
+            throw new IllegalStateException("The off-heap memory was already released.");
+        }
+        updateThreadsShouldRun.set(true);
+
+        updatePrimitiveAccelerator();
+        updateMatrixValues();
+        makeContainers();
+        updateVelocities();
+        updatePositions();
+
+        updateThreadsShouldRun.set(false);
+    }
+
+    public void forceUpdateStop() {
+        updateThreadsShouldRun.set(false);
+    }
+
+    /**
+     * Stops the worker threads and then releases the off-heap memory.
+     * The simulation can't be used anymore afterwards.
+     * The memory is only released if the threads terminated in time,
+     * as they might still access it otherwise.
+     *
+     * @see Physics#shutdown(long)
+     */
+    public boolean shutdown(long timeoutMilliseconds) throws InterruptedException {
+        boolean terminated = loadDistributor.shutdown(timeoutMilliseconds);
+        if (terminated) {
+            releaseMemory();
+        }
+        return terminated;
+    }
+
+    /**
+     * Same as {@link #shutdown(long)} with a timeout of one second.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        shutdown(1000);
+    }
+
+    private void releaseMemory() {
+        if (closed) return;
+        closed = true;
+        store.close();
+        if (storeBuffer != null) {
+            storeBuffer.close();
+        }
+    }
+
+    /**
+     * Note that {@link #update()} swaps the store with an internal buffer,
+     * so the returned object is only valid until the next call to {@link #update()}.
+     */
+    public OffHeapParticleStore getParticleStore() {
+        return store;
+    }
+
+    public int getParticleCount() {
+        return store.size();
+    }
+
+    private void updatePrimitiveAccelerator() {
+        if (accelerator instanceof PrimitiveAccelerator a) {
+            primitiveAccelerator = a;
+        } else if (!(primitiveAccelerator instanceof AcceleratorAdapter adapter) || adapter.accelerator != accelerator) {
+            primitiveAccelerator = new AcceleratorAdapter(accelerator);
+        }
+    }
+
+    private void updateMatrixValues() {
+        final Matrix matrix = settings.matrix;
+        matrixValues = EngineSupport.matrixValues(matrix, matrixValues);
+        matrixSize = matrix.size();
+    }
+
+    private void makeContainers() {
+        int newNx = Math.max(1, (int) Math.floor(1 / settings.rmax));
+        if (newNx != nx || settings.wrap != containersWrap) {
+            nx = newNx;
+            ny = newNx;
+            containersWrap = settings.wrap;
+            containers = new int[nx * ny];
+            neighborColumns = EngineSupport.makeNeighbors(nx, containersWrap);
+            neighborRows = EngineSupport.makeNeighbors(ny, containersWrap);
+        }
+
+        final OffHeapParticleStore s = store;
+        final int n = s.size();
+        if (storeBuffer == null || storeBuffer.size() != n) {
+            if (storeBuffer != null) {
+                storeBuffer.close();
+            }
+            storeBuffer = new OffHeapParticleStore(n);
+        }
+
+        final OffHeapParticleStore buffer = storeBuffer;
+        containerSorter.sort(n, ContainerSorter.chunkCount(n, preferredNumberOfThreads), containers,
+                i -> getContainerIndex(s.x.getAtIndex(JAVA_DOUBLE, i), s.y.getAtIndex(JAVA_DOUBLE, i)),
+                (i, j) -> s.copy(i, buffer, j),
+                loadDistributor, preferredNumberOfThreads);
+
+        // swap buffers
+        OffHeapParticleStore h = store;
+        store = storeBuffer;
+        storeBuffer = h;
+    }
+
+    private int getContainerIndex(double x, double y) {
+        return getContainerX(x) + getContainerY(y) * nx;
+    }
+
+    private int getContainerX(double x) {
+        int cx = (int) (x * nx);
+        // for solid borders
+        return cx >= nx ? nx - 1 : cx;
+    }
+
+    private int getContainerY(double y) {
+        int cy = (int) (y * ny);
+        // for solid borders
+        return cy >= ny ? ny - 1 : cy;
+    }
+
+    private void updateVelocities() {
+        loadDistributor.distributeLoadEvenly(store.size(), preferredNumberOfThreads, i -> {
+            if (!updateThreadsShouldRun.get()) return false;
+            updateVelocity(i);
+            return true;
+        });
+    }
+
+    private void updateVelocity(int i) {
+        final OffHeapParticleStore s = store;
+        final MemorySegment xs = s.x;
+        final MemorySegment ys = s.y;
+        final MemorySegment types = s.type;
+        final int[] containers = this.containers;
+        final double px = xs.getAtIndex(JAVA_DOUBLE, i);
+        final double py = ys.getAtIndex(JAVA_DOUBLE, i);
+
+        // apply friction before adding new velocity
+        final double frictionFactor = Math.pow(settings.friction, 60 * settings.dt);  // is normalized to 60 fps
+        double vx = s.vx.getAtIndex(JAVA_DOUBLE, i) * frictionFactor;
+        double vy = s.vy.getAtIndex(JAVA_DOUBLE, i) * frictionFactor;
+
+        final double rmax = settings.rmax;
+        final double forceFactor = rmax * settings.force * settings.dt;
+        final boolean wrap = settings.wrap;
+        final double[] matrix = matrixValues;
+        final double[] acceleration = accelerationBuffers.get();
+        final int matrixRow = types.getAtIndex(JAVA_INT, i) * matrixSize;
+
+        for (int cy : neighborRows[getContainerY(py)]) {
+            for (int cx : neighborColumns[getContainerX(px)]) {
+                int ci = cx + cy * nx;
+                int start = ci == 0 ? 0 : containers[ci - 1];
+                int stop = containers[ci];
+
+                for (int j = start; j < stop; j++) {
+                    if (i == j) continue;
+
+                    double dx = xs.getAtIndex(JAVA_DOUBLE, j) - px;
+                    double dy = ys.getAtIndex(JAVA_DOUBLE, j) - py;
+                    if (wrap) {
+                        // wrapping the connection gives us the shortest possible distance
+                        dx = Range.wrapConnection(dx);
+                        dy = Range.wrapConnection(dy);
+                    }
+
+                    double distanceSquared = dx * dx + dy * dy;
+                    // only check particles that are closer than or at rmax
+                    if (distanceSquared != 0 && distanceSquared <= rmax * rmax) {
+                        primitiveAccelerator.accelerate(matrix[matrixRow + types.getAtIndex(JAVA_INT, j)],
+                                dx / rmax, dy / rmax, 0, acceleration);
+                        vx += acceleration[0] * forceFactor;
+                        vy += acceleration[1] * forceFactor;
+                    }
+                }
+            }
+        }
+
+        s.vx.setAtIndex(JAVA_DOUBLE, i, vx);
+        s.vy.setAtIndex(JAVA_DOUBLE, i, vy);
+    }
+
+    private void updatePositions() {
+        final OffHeapParticleStore s = store;
+        final double dt = settings.dt;
+        loadDistributor.distributeLoadEvenly(s.size(), preferredNumberOfThreads, i -> {
+            if (!updateThreadsShouldRun.get()) return false;
+            s.x.setAtIndex(JAVA_DOUBLE, i, ensurePosition(s.x.getAtIndex(JAVA_DOUBLE, i) + s.vx.getAtIndex(JAVA_DOUBLE, i) * dt));
+            s.y.setAtIndex(JAVA_DOUBLE, i, ensurePosition(s.y.getAtIndex(JAVA_DOUBLE, i) + s.vy.getAtIndex(JAVA_DOUBLE, i) * dt));
+            return true;
+        });
+    }
+
+    /**
+     * Wraps or clamps a coordinate into the world, depending on {@link PhysicsSettings#wrap}.
+     */
+    private double ensurePosition(double value) {
+        return settings.wrap ? Range.wrap(value) : Range.clamp(value);
+    }
+
+    /**
+     * @see Physics#setParticleCount(int)
+     */
+    public void setParticleCount(int n) {
+        control.setParticleCount(n);
+    }
+
+    /**
+     * @see Physics#setMatrixSize(int)
+     */
+    public void setMatrixSize(int newSize) {
+        control.setMatrixSize(newSize);
+    }
+
+    /**
+     * @see Physics#ensureTypes()
+     */
+    public void ensureTypes() {
+        control.ensureTypes();
+    }
+
+    public void generateMatrix() {
+        ParticleControl.generateMatrix(settings, matrixGenerator);
+    }
+
+    public void setPositions() {
+        control.setPositions();
+    }
+
+    public void setTypes() {
+        control.setTypes();
+    }
+
+    /**
+     * Gives {@link ParticleControl} access to the particle store.
+     */
+    private final class OffHeapStoreControl extends ParticleControl {
+
+        @Override
+        PhysicsSettings settings() {
+            return settings;
+        }
+
+        @Override
+        MatrixGenerator matrixGenerator() {
+            return matrixGenerator;
+        }
+
+        @Override
+        PositionSetter positionSetter() {
+            return positionSetter;
+        }
+
+        @Override
+        TypeSetter typeSetter() {
+            return typeSetter;
+        }
+
+        @Override
+        int size() {
+            return store.size();
+        }
+
+        @Override
+        void resize(int n) {
+            store = store.resize(n);
+        }
+
+        @Override
+        void resetIds() {
+            store.resetIds();
+        }
+
+        @Override
+        void swap(int i, int j) {
+            store.swap(i, j);
+        }
+
+        @Override
+        int getType(int i) {
+            return store.type.getAtIndex(JAVA_INT, i);
+        }
+
+        @Override
+        void putType(int i, int type) {
+            store.type.setAtIndex(JAVA_INT, i, type);
+        }
+
+        @Override
+        void getPosition(int i, Vector3d dest) {
+            dest.set(store.x.getAtIndex(JAVA_DOUBLE, i), store.y.getAtIndex(JAVA_DOUBLE, i), 0);
+        }
+
+        @Override
+        void getVelocity(int i, Vector3d dest) {
+            dest.set(store.vx.getAtIndex(JAVA_DOUBLE, i), store.vy.getAtIndex(JAVA_DOUBLE, i), 0);
+        }
+
+        @Override
+        void putPosition(int i, Vector3d position) {
+            store.x.setAtIndex(JAVA_DOUBLE, i, ensurePosition(position.x));
+            store.y.setAtIndex(JAVA_DOUBLE, i, ensurePosition(position.y));
+            store.vx.setAtIndex(JAVA_DOUBLE, i, 0);
+            store.vy.setAtIndex(JAVA_DOUBLE, i, 0);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.particle_life;
+
+import org.joml.Vector3d;
+
+/**
+ * Accelerators that are used by the benchmarks.
+ */
+final class BenchmarkAccelerators {
+
+    private BenchmarkAccelerators() {
+    }
+
+    /**
+     * The force shape of Particle Life.
+     */
+    static final Accelerator PARTICLE_LIFE = (a, pos) -> {
+        double beta = 0.3;
+        double r = pos.length();
+        double f;
+        if (r < beta) {
+            f = r / beta - 1;
+        } else if (beta < r && r < 1) {
+            f = a * (1 - Math.abs(1 + beta - 2 * r) / (1 - beta));
+        } else {
+            f = 0;
+        }
+        return pos.mul(f / r);
+    };
+
+    /**
+     * Creates a physics instance with random particles.
+     */
+    static Physics makePhysics(int particleCount, double rmax, boolean wrap, int matrixSize,
+                               int threads, boolean arrayStorage) {
+        Physics physics = new Physics(PARTICLE_LIFE);
+        physics.settings.rmax = rmax;
+        physics.settings.wrap = wrap;
+        physics.setMatrixSize(matrixSize);
+        physics.preferredNumberOfThreads = threads;
+        physics.setArrayStorage(arrayStorage);
+        physics.setParticleCount(particleCount);
+        return physics;
+    }
+
+    static Vector3d randomVector(double min, double max) {
+        return new Vector3d(
+                min + Math.random() * (max - min),
+                min + Math.random() * (max - min),
+                0
+        );
+    }
+}
@@ -0,0 +1,62 @@
+package com.particle_life;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link ContainerLayout}s for large numbers of particles.
+ * <p>Run with the perfnorm profiler (Linux only) to see the cache misses per update, e.g.
+ * <code>./gradlew jmh -Pjmh.includes=ContainerLayoutBenchmark -Pjmh.profilers=perfnorm</code>,
+ * and compare <code>L1-dcache-load-misses</code> and <code>LLC-load-misses</code> between the layouts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ContainerLayoutBenchmark {
+
+    @Param({"500000", "2000000"})
+    public int particleCount;
+
+    @Param({"0.005", "0.01"})
+    public double rmax;
+
+    @Param({"1", "12"})
+    public int preferredNumberOfThreads;
+
+    @Param({"ROW_MAJOR", "MORTON"})
+    public ContainerLayout containerLayout;
+
+    @Param({"1", "2"})
+    public int containerSubdivision;
+
+    private Physics physics;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        physics = BenchmarkAccelerators.makePhysics(particleCount, rmax, true, 7,
+                preferredNumberOfThreads, true);
+        physics.containerLayout = containerLayout;
+        physics.containerSubdivision = containerSubdivision;
+        physics.startUpdate();
+        physics.buildContainers();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        physics.shutdown(1000);
+    }
+
+    @Benchmark
+    public void velocityPass() {
+        physics.updateVelocities();
+    }
+
+    @Benchmark
+    public void update() {
+        physics.update();
+    }
+}
@@ -0,0 +1,69 @@
+package com.particle_life;
+
+/**
+ * Runs {@link Physics} and {@link FloatPhysics} side by side from the same initial state
+ * and prints how far the particles drift apart.
+ * <p>Run with <code>./gradlew floatDrift</code>, optionally with
+ * <code>--args="particleCount steps"</code>.
+ * <p>The distance between the double and the float version of each particle is measured
+ * across the wrapped borders and relative to rmax.
+ * As Particle Life is chaotic, the particles are expected to drift apart eventually,
+ * so the mean speed and the type-averaged positions are printed as well,
+ * which should stay similar as long as both simulations show the same patterns.
+ */
+public final class FloatDriftComparison {
+
+    private FloatDriftComparison() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int particleCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Physics physics = new Physics(new ParticleLifeAccelerator());
+        physics.useVectorKernel = false;
+        physics.setArrayStorage(true);
+        physics.setParticleCount(particleCount);
+        physics.settings.rmax = 0.05;
+        FloatPhysics floatPhysics = new FloatPhysics(new ParticleLifeAccelerator());
+        floatPhysics.copyFrom(physics);
+
+        final double rmax = physics.settings.rmax;
+        final int n = physics.getParticleCount();
+        System.out.printf("%8s %14s %14s %14s %14s%n", "step", "mean drift", "max drift", "speed double", "speed float");
+
+        double[] dx = new double[n];
+        double[] dy = new double[n];
+        int nextReport = 1;
+        for (int step = 1; step <= steps; step++) {
+            physics.update();
+            floatPhysics.update();
+            if (step != nextReport && step != steps) continue;
+            nextReport *= 2;
+
+            ParticleStore s = physics.getParticleStore();
+            FloatParticleStore f = floatPhysics.getParticleStore();
+            double speedDouble = 0;
+            double speedFloat = 0;
+            for (int i = 0; i < n; i++) {
+                dx[s.id[i]] = s.x[i];
+                dy[s.id[i]] = s.y[i];
+                speedDouble += Math.sqrt(s.vx[i] * s.vx[i] + s.vy[i] * s.vy[i]);
+                speedFloat += Math.sqrt(f.vx[i] * f.vx[i] + f.vy[i] * f.vy[i]);
+            }
+            double meanDrift = 0;
+            double maxDrift = 0;
+            for (int i = 0; i < n; i++) {
+                double ex = Range.wrapConnection(f.x[i] - dx[f.id[i]]);
+                double ey = Range.wrapConnection(f.y[i] - dy[f.id[i]]);
+                double drift = Math.sqrt(ex * ex + ey * ey) / rmax;
+                meanDrift += drift;
+                maxDrift = Math.max(maxDrift, drift);
+            }
+            System.out.printf("%8d %14.6g %14.6g %14.6g %14.6g%n", step, meanDrift / n, maxDrift, speedDouble / n, speedFloat / n);
+        }
+
+        physics.shutdown(1000);
+        floatPhysics.shutdown(1000);
+    }
+}
@@ -0,0 +1,58 @@
+package com.particle_life;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a complete update of {@link FloatPhysics} with {@link Physics} (array storage)
+ * for the same initial state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FloatPhysicsBenchmark {
+
+    @Param({"100000", "1000000", "4000000"})
+    public int particleCount;
+
+    @Param({"0.005", "0.01"})
+    public double rmax;
+
+    @Param({"1", "12"})
+    public int preferredNumberOfThreads;
+
+    private Physics physics;
+    private FloatPhysics floatPhysics;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // the SIMD kernel would make this a comparison of kernels rather than of precisions
+        physics = BenchmarkAccelerators.makePhysics(particleCount, rmax, true, 7,
+                preferredNumberOfThreads, true);
+        physics.useVectorKernel = false;
+        physics.accelerator = new ParticleLifeAccelerator();
+        floatPhysics = new FloatPhysics(new ParticleLifeAccelerator());
+        floatPhysics.preferredNumberOfThreads = preferredNumberOfThreads;
+        floatPhysics.copyFrom(physics);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        physics.shutdown(1000);
+        floatPhysics.shutdown(1000);
+    }
+
+    @Benchmark
+    public void doublePrecision() {
+        physics.update();
+    }
+
+    @Benchmark
+    public void singlePrecision() {
+        floatPhysics.update();
+    }
+}
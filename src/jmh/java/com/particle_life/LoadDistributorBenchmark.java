@@ -0,0 +1,55 @@
+package com.particle_life;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link LoadDistributor#distributeLoadEvenly}
+ * with trivial and with light work per index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LoadDistributorBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int loadSize;
+
+    @Param({"1", "4", "12"})
+    public int preferredNumberOfThreads;
+
+    private LoadDistributor loadDistributor;
+    private double[] values;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        loadDistributor = new LoadDistributor();
+        values = new double[loadSize];
+        for (int i = 0; i < loadSize; i++) {
+            values[i] = Math.random();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        loadDistributor.shutdown(1000);
+    }
+
+    @Benchmark
+    public void emptyWork() {
+        loadDistributor.distributeLoadEvenly(loadSize, preferredNumberOfThreads, i -> true);
+    }
+
+    @Benchmark
+    public double[] lightWork() {
+        loadDistributor.distributeLoadEvenly(loadSize, preferredNumberOfThreads, i -> {
+            values[i] = Math.sqrt(values[i] + 1.0);
+            return true;
+        });
+        return values;
+    }
+}
@@ -0,0 +1,91 @@
+package com.particle_life;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the phases of {@link Physics#update()} separately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PhasesBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int particleCount;
+
+    @Param({"0.01", "0.02"})
+    public double rmax;
+
+    @Param({"true"})
+    public boolean wrap;
+
+    @Param({"7"})
+    public int matrixSize;
+
+    @Param({"1", "12"})
+    public int preferredNumberOfThreads;
+
+    @Param({"false", "true"})
+    public boolean arrayStorage;
+
+    @Param({"1", "2", "0"})
+    public int containerSubdivision;
+
+    @Param({"false", "true"})
+    public boolean symmetricPairs;
+
+    @Param({"false", "true"})
+    public boolean sortContainersByType;
+
+    private Physics physics;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        physics = BenchmarkAccelerators.makePhysics(particleCount, rmax, wrap, matrixSize,
+                preferredNumberOfThreads, arrayStorage);
+        physics.containerSubdivision = containerSubdivision;
+        physics.symmetricPairs = symmetricPairs;
+        physics.sortContainersByType = sortContainersByType;
+        physics.startUpdate();
+        physics.buildContainers();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        physics.shutdown(1000);
+    }
+
+    @Benchmark
+    public void makeContainers() {
+        physics.buildContainers();
+    }
+
+    @Benchmark
+    public void velocityPass() {
+        physics.updateVelocities();
+    }
+
+    @Benchmark
+    public void positionPass() {
+        physics.updatePositions();
+    }
+
+    /**
+     * Velocity and position pass in one, see {@link Physics#fusedUpdate}.
+     * Only differs from the separate passes with array storage.
+     */
+    @Benchmark
+    public void fusedPass() {
+        if (arrayStorage) {
+            physics.updateVelocitiesAndPositions();
+        } else {
+            physics.updateVelocities();
+            physics.updatePositions();
+        }
+    }
+}
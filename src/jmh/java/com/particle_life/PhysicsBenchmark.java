@@ -0,0 +1,56 @@
+package com.particle_life;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a complete {@link Physics#update()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PhysicsBenchmark {
+
+    @Param({"10000", "100000", "500000", "2000000"})
+    public int particleCount;
+
+    @Param({"0.005", "0.01", "0.02"})
+    public double rmax;
+
+    @Param({"true", "false"})
+    public boolean wrap;
+
+    @Param({"3", "7", "20"})
+    public int matrixSize;
+
+    /**
+     * 0 lets the {@link ThreadAutotuner} choose (it is tuned during the warm-up iterations).
+     */
+    @Param({"1", "4", "12", "0"})
+    public int preferredNumberOfThreads;
+
+    @Param({"false", "true"})
+    public boolean arrayStorage;
+
+    private Physics physics;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        physics = BenchmarkAccelerators.makePhysics(particleCount, rmax, wrap, matrixSize,
+                preferredNumberOfThreads, arrayStorage);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        physics.shutdown(1000);
+    }
+
+    @Benchmark
+    public void update() {
+        physics.update();
+    }
+}
@@ -0,0 +1,62 @@
+package com.particle_life;
+
+import org.joml.Vector3d;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Range#wrap(Vector3d)} and {@link Range#wrapConnection(Vector3d)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RangeBenchmark {
+
+    private static final int N = 4096;
+
+    private final Vector3d[] positions = new Vector3d[N];
+    private final Vector3d[] connections = new Vector3d[N];
+    private final Vector3d[] buffer = new Vector3d[N];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        for (int i = 0; i < N; i++) {
+            positions[i] = BenchmarkAccelerators.randomVector(-0.1, 1.1);
+            connections[i] = BenchmarkAccelerators.randomVector(-1, 1);
+            buffer[i] = new Vector3d();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void wrap(Blackhole blackhole) {
+        for (int i = 0; i < N; i++) {
+            Vector3d v = buffer[i].set(positions[i]);
+            Range.wrap(v);
+            blackhole.consume(v.x);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void wrapConnection(Blackhole blackhole) {
+        for (int i = 0; i < N; i++) {
+            Vector3d v = buffer[i].set(connections[i]);
+            Range.wrapConnection(v);
+            blackhole.consume(v.x);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void wrapConnectionScalar(Blackhole blackhole) {
+        for (int i = 0; i < N; i++) {
+            blackhole.consume(Range.wrapConnection(connections[i].x));
+        }
+    }
+}
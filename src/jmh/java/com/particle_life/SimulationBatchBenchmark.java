@@ -0,0 +1,68 @@
+package com.particle_life;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many small simulations for a few steps each,
+ * once with a {@link SimulationBatch} and once with one thread pool per simulation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SimulationBatchBenchmark {
+
+    @Param({"64"})
+    public int simulationCount;
+
+    @Param({"1000", "5000"})
+    public int particleCount;
+
+    @Param({"10"})
+    public int steps;
+
+    @Param({"12"})
+    public int preferredNumberOfThreads;
+
+    private Physics[] simulations;
+    private SimulationBatch batch;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        simulations = new Physics[simulationCount];
+        for (int k = 0; k < simulationCount; k++) {
+            simulations[k] = BenchmarkAccelerators.makePhysics(particleCount, 0.02, true, 7,
+                    preferredNumberOfThreads, true);
+        }
+        batch = new SimulationBatch(preferredNumberOfThreads);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws InterruptedException {
+        for (Physics physics : simulations) {
+            physics.shutdown(1000);
+        }
+        batch.shutdown(1000);
+    }
+
+    @Benchmark
+    public void separatePools() {
+        for (Physics physics : simulations) {
+            for (int step = 0; step < steps; step++) {
+                physics.update();
+            }
+        }
+    }
+
+    @Benchmark
+    public void sharedPool() {
+        for (Physics physics : simulations) {
+            batch.add(physics, steps);
+        }
+        batch.run(null, null);
+    }
+}
@@ -0,0 +1,78 @@
+package com.particle_life;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the SIMD force kernel with the scalar force kernel in the velocity pass,
+ * with AVX2 and with AVX-512 instructions.
+ * <p>Run with {@code ./gradlew jmh -PvectorApi -Pjmh.includes=VectorKernelBenchmark}.
+ * On hosts without AVX-512, the JVM falls back to the best available instruction set
+ * for the AVX-512 benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class VectorKernelBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int particleCount;
+
+    @Param({"0.01", "0.02"})
+    public double rmax;
+
+    @Param({"true", "false"})
+    public boolean wrap;
+
+    @Param({"1", "12"})
+    public int preferredNumberOfThreads;
+
+    private Physics physics;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        physics = BenchmarkAccelerators.makePhysics(particleCount, rmax, wrap, 7,
+                preferredNumberOfThreads, true);
+        physics.accelerator = new ParticleLifeAccelerator();
+        physics.startUpdate();
+        physics.buildContainers();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        physics.shutdown(1000);
+    }
+
+    private void velocityPass(boolean useVectorKernel) {
+        physics.useVectorKernel = useVectorKernel;
+        physics.startUpdate();
+        physics.updateVelocities();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-XX:UseAVX=2"})
+    public void scalarAvx2() {
+        velocityPass(false);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-XX:UseAVX=2"})
+    public void vectorAvx2() {
+        velocityPass(true);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-XX:UseAVX=3"})
+    public void scalarAvx512() {
+        velocityPass(false);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-XX:UseAVX=3"})
+    public void vectorAvx512() {
+        velocityPass(true);
+    }
+}
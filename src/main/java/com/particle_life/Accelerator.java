@@ -12,6 +12,7 @@ public interface Accelerator {
      *            with its length divided by rmax, so this vector will always have a length <= 1.
      * @return The acceleration that should be applied to the particle's velocity.
      *         This is also interpreted as relative to rmax, that is, it will be scaled by rmax before it is applied to the particle.
+     * @see PrimitiveAccelerator
      */
     Vector3d accelerate(double a, Vector3d pos);
 }
@@ -0,0 +1,27 @@
+package com.particle_life;
+
+import org.joml.Vector3d;
+
+/**
+ * Makes an {@link Accelerator} usable as a {@link PrimitiveAccelerator}.
+ * <p>The {@link Vector3d} that is passed to the wrapped accelerator is re-used
+ * for each call on the same thread, so no vectors are allocated unless the
+ * wrapped accelerator allocates them itself.
+ */
+public class AcceleratorAdapter implements PrimitiveAccelerator {
+
+    public final Accelerator accelerator;
+    private final ThreadLocal<Vector3d> pos = ThreadLocal.withInitial(Vector3d::new);
+
+    public AcceleratorAdapter(Accelerator accelerator) {
+        this.accelerator = accelerator;
+    }
+
+    @Override
+    public void accelerate(double a, double x, double y, double z, double[] out) {
+        Vector3d acceleration = accelerator.accelerate(a, pos.get().set(x, y, z));
+        out[0] = acceleration.x;
+        out[1] = acceleration.y;
+        out[2] = acceleration.z;
+    }
+}
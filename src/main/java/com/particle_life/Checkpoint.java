@@ -0,0 +1,251 @@
+package com.particle_life;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves and loads the state of a {@link Physics} simulation in a binary file.
+ * <p>A checkpoint contains the {@link PhysicsSettings} (including the matrix),
+ * the positions, velocities and types of all particles,
+ * and the class name of the {@link Physics#accelerator}.
+ * The accelerator itself is code and can't be restored, so it is up to the caller
+ * to check the class name returned by {@link #load(Physics, Path)}.
+ * <p>The file is read and written through memory-mapped buffers,
+ * and the particle arrays are copied in bulk if {@link Physics#isArrayStorage() array storage} is enabled.
+ * <p>File format (version 1), all values in little-endian byte order:
+ * <pre>
+ * int     magic number 0x504C434B ("PLCK")
+ * int     version
+ * int     n (number of particles)
+ * int     m (matrix size)
+ * int     wrap (0 or 1)
+ * int     length of the accelerator class name in bytes
+ * double  rmax, friction, force, dt
+ * byte[]  accelerator class name (UTF-8), padded with zeros to a multiple of 8 bytes
+ * double  matrix[m * m] (row-major)
+ * double  x[n], y[n], z[n], vx[n], vy[n], vz[n]
+ * int     type[n]
+ * </pre>
+ */
+public final class Checkpoint {
+
+    public static final int MAGIC = 0x504C434B;
+    public static final int VERSION = 1;
+
+    private static final int FIXED_HEADER_SIZE = 6 * Integer.BYTES + 4 * Double.BYTES;
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Writes the current state of <code>physics</code> into a file.
+     * An existing file is overwritten.
+     * Must not be called while <code>physics</code> is being updated.
+     */
+    public static void save(Physics physics, Path path) throws IOException {
+        final PhysicsSettings settings = physics.settings;
+        final Matrix matrix = settings.matrix;
+        final ParticleStore store = physics.getParticleStore();
+        final Particle[] particles = physics.particles;
+        final int n = physics.getParticleCount();
+        final int m = matrix.size();
+        final byte[] acceleratorName = physics.accelerator.getClass().getName().getBytes(StandardCharsets.UTF_8);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            long headerSize = headerSize(acceleratorName.length, m);
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, headerSize);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(n);
+            header.putInt(m);
+            header.putInt(settings.wrap ? 1 : 0);
+            header.putInt(acceleratorName.length);
+            header.putDouble(settings.rmax);
+            header.putDouble(settings.friction);
+            header.putDouble(settings.force);
+            header.putDouble(settings.dt);
+            header.put(acceleratorName);
+            header.position(FIXED_HEADER_SIZE + padded(acceleratorName.length));
+            for (int i = 0; i < m; i++) {
+                for (int j = 0; j < m; j++) {
+                    header.putDouble(matrix.get(i, j));
+                }
+            }
+
+            long position = headerSize;
+            DoubleBuffer[] doubles = new DoubleBuffer[6];
+            for (int k = 0; k < doubles.length; k++) {
+                doubles[k] = map(channel, FileChannel.MapMode.READ_WRITE, position, (long) n * Double.BYTES).asDoubleBuffer();
+                position += (long) n * Double.BYTES;
+            }
+            IntBuffer types = map(channel, FileChannel.MapMode.READ_WRITE, position, (long) n * Integer.BYTES).asIntBuffer();
+
+            if (store != null) {
+                doubles[0].put(store.x, 0, n);
+                doubles[1].put(store.y, 0, n);
+                doubles[2].put(store.z, 0, n);
+                doubles[3].put(store.vx, 0, n);
+                doubles[4].put(store.vy, 0, n);
+                doubles[5].put(store.vz, 0, n);
+                types.put(store.type, 0, n);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    Particle p = particles[i];
+                    doubles[0].put(i, p.position.x);
+                    doubles[1].put(i, p.position.y);
+                    doubles[2].put(i, p.position.z);
+                    doubles[3].put(i, p.velocity.x);
+                    doubles[4].put(i, p.velocity.y);
+                    doubles[5].put(i, p.velocity.z);
+                    types.put(i, p.type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores the state of <code>physics</code> from a file that was written with {@link #save(Physics, Path)}.
+     * <p>The settings and the matrix are overwritten.
+     * If {@link Physics#isArrayStorage() array storage} is enabled, the particles are loaded into the
+     * particle store (call {@link Physics#syncParticles()} to update {@link Physics#particles}),
+     * otherwise they are loaded into {@link Physics#particles}, re-using its {@link Particle} objects where possible.
+     * <p>Must not be called while <code>physics</code> is being updated.
+     *
+     * @return the class name of the accelerator that was used when the checkpoint was saved
+     * @throws IOException if the file can't be read or is not a valid checkpoint
+     */
+    public static String load(Physics physics, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            if (channel.size() < FIXED_HEADER_SIZE) {
+                throw new IOException("Not a checkpoint file: " + path);
+            }
+            ByteBuffer fixedHeader = map(channel, FileChannel.MapMode.READ_ONLY, 0, FIXED_HEADER_SIZE);
+            if (fixedHeader.getInt() != MAGIC) {
+                throw new IOException("Not a checkpoint file: " + path);
+            }
+            int version = fixedHeader.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + " (expected " + VERSION + ").");
+            }
+            final int n = fixedHeader.getInt();
+            final int m = fixedHeader.getInt();
+            final boolean wrap = fixedHeader.getInt() != 0;
+            final int acceleratorNameLength = fixedHeader.getInt();
+            if (n < 0 || m < 0 || acceleratorNameLength < 0) {
+                throw new IOException("Corrupt checkpoint header: " + path);
+            }
+            long headerSize = headerSize(acceleratorNameLength, m);
+            long expectedSize = headerSize + (long) n * (6 * Double.BYTES + Integer.BYTES);
+            if (channel.size() != expectedSize) {
+                throw new IOException("Checkpoint has " + channel.size() + " bytes, expected " + expectedSize + ": " + path);
+            }
+
+            // check the types before anything is changed, they are used as matrix indices later
+            IntBuffer types = map(channel, FileChannel.MapMode.READ_ONLY,
+                    headerSize + 6L * n * Double.BYTES, (long) n * Integer.BYTES).asIntBuffer();
+            for (int i = 0; i < n; i++) {
+                int type = types.get(i);
+                if (type < 0 || type >= m) {
+                    throw new IOException("Corrupt checkpoint (particle " + i + " has type " + type
+                            + ", but the matrix size is " + m + "): " + path);
+                }
+            }
+
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, headerSize);
+            header.position(6 * Integer.BYTES);
+            final PhysicsSettings settings = physics.settings;
+            settings.wrap = wrap;
+            settings.rmax = header.getDouble();
+            settings.friction = header.getDouble();
+            settings.force = header.getDouble();
+            settings.dt = header.getDouble();
+            byte[] acceleratorName = new byte[acceleratorNameLength];
+            header.get(acceleratorName);
+            header.position(FIXED_HEADER_SIZE + padded(acceleratorNameLength));
+
+            Matrix matrix = settings.matrix;
+            if (matrix.size() != m) {
+                matrix = physics.matrixGenerator.makeMatrix(m);
+            }
+            for (int i = 0; i < m; i++) {
+                for (int j = 0; j < m; j++) {
+                    matrix.set(i, j, header.getDouble());
+                }
+            }
+            settings.matrix = matrix;
+
+            long position = headerSize;
+            DoubleBuffer[] doubles = new DoubleBuffer[6];
+            for (int k = 0; k < doubles.length; k++) {
+                doubles[k] = map(channel, FileChannel.MapMode.READ_ONLY, position, (long) n * Double.BYTES).asDoubleBuffer();
+                position += (long) n * Double.BYTES;
+            }
+
+            if (physics.isArrayStorage()) {
+                ParticleStore store = physics.getParticleStore();
+                if (store.size() != n) {
+                    store = new ParticleStore(n);
+                }
+                doubles[0].get(store.x, 0, n);
+                doubles[1].get(store.y, 0, n);
+                doubles[2].get(store.z, 0, n);
+                doubles[3].get(store.vx, 0, n);
+                doubles[4].get(store.vy, 0, n);
+                doubles[5].get(store.vz, 0, n);
+                types.get(store.type, 0, n);
+                physics.setParticleStore(store);
+            } else {
+                Particle[] particles = physics.particles;
+                if (particles == null || particles.length != n) {
+                    Particle[] newParticles = new Particle[n];
+                    if (particles != null) {
+                        System.arraycopy(particles, 0, newParticles, 0, Math.min(particles.length, n));
+                    }
+                    particles = newParticles;
+                }
+                for (int i = 0; i < n; i++) {
+                    Particle p = particles[i];
+                    if (p == null) {
+                        p = new Particle();
+                        particles[i] = p;
+                    }
+                    p.position.set(doubles[0].get(i), doubles[1].get(i), doubles[2].get(i));
+                    p.velocity.set(doubles[3].get(i), doubles[4].get(i), doubles[5].get(i));
+                    p.type = types.get(i);
+                }
+                physics.particles = particles;
+                physics.particlesReplaced();
+            }
+
+            return new String(acceleratorName, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static long headerSize(int acceleratorNameLength, int matrixSize) {
+        return FIXED_HEADER_SIZE + padded(acceleratorNameLength) + (long) matrixSize * matrixSize * Double.BYTES;
+    }
+
+    /**
+     * @return <code>length</code> rounded up to a multiple of 8, so that the following doubles are aligned
+     */
+    private static int padded(int length) {
+        return (length + 7) & ~7;
+    }
+
+    /**
+     * Maps each section of the file separately, as a single mapping can't be larger than 2 GB.
+     */
+    private static ByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+        return channel.map(mode, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,24 @@
+package com.particle_life;
+
+/**
+ * The order in which the containers, and therefore the particles in them, are stored in memory.
+ *
+ * @see Physics#containerLayout
+ */
+public enum ContainerLayout {
+
+    /**
+     * Container (cx, cy) has the index <code>cx + cy * nx</code>.
+     * Containers that are vertically adjacent are <code>nx</code> containers apart in memory.
+     */
+    ROW_MAJOR,
+
+    /**
+     * Containers are numbered along the Z-order curve, i.e. the bits of cx and cy are interleaved.
+     * Containers that are close to each other in space tend to be close to each other in memory,
+     * so the neighborhood of a container touches fewer distant memory regions.
+     * <p>If the number of containers along an axis is not a power of two,
+     * some container indices are not used and stay empty.
+     */
+    MORTON
+}
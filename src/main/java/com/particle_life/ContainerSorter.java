@@ -0,0 +1,198 @@
+package com.particle_life;
+
+import java.util.Arrays;
+
+/**
+ * Counting sort of particles by their container index, used by {@link Physics}, {@link FloatPhysics}
+ * and the off-heap simulation.
+ * <p>The particles are cut into chunks which are processed in parallel:
+ * <ol>
+ *     <li>Each chunk counts how many of its particles fall into each container.</li>
+ *     <li>A prefix sum over (container, chunk) turns these counts into the index
+ *         where each chunk starts writing into each container.
+ *         This is also done in parallel, on blocks of containers.</li>
+ *     <li>Each chunk moves its particles to their new indices.</li>
+ * </ol>
+ * Within each container, the particles keep their previous order,
+ * so the result is the same as that of a single-threaded counting sort.
+ * <p>The buffers are kept between sorts, so that sorting doesn't allocate memory
+ * as long as the number of particles and containers stays the same.
+ */
+class ContainerSorter {
+
+    interface ContainerIndexFunction {
+        int getContainerIndex(int i);
+    }
+
+    interface ParticleMover {
+        /**
+         * Moves the particle at index <code>i</code> to index <code>j</code> of the particle buffer.
+         */
+        void move(int i, int j);
+    }
+
+    /**
+     * Sorting into containers is only parallelized if each thread gets at least this many particles.
+     */
+    static final int MIN_PARTICLES_PER_CHUNK = 10000;
+
+    /**
+     * Whether the container of each particle is stored when counting and then read when moving the particles.
+     * Otherwise, it is computed twice instead, which saves 4 bytes per particle on the heap.
+     */
+    private final boolean bufferParticleContainers;
+
+    /**
+     * The container of each particle, <code>null</code> if the particle containers are not buffered.
+     */
+    int[] particleContainers;
+    /**
+     * <code>histograms[chunk][ci]</code> is how many particles of the chunk fall into container <code>ci</code>.
+     */
+    int[][] histograms;
+    private int[] blockOffsets;
+
+    ContainerSorter() {
+        this(true);
+    }
+
+    /**
+     * @param bufferParticleContainers see {@link #particleContainers}
+     */
+    ContainerSorter(boolean bufferParticleContainers) {
+        this.bufferParticleContainers = bufferParticleContainers;
+    }
+
+    /**
+     * @return into how many chunks <code>n</code> particles are cut for sorting on <code>threads</code> threads
+     */
+    static int chunkCount(int n, int threads) {
+        return Math.max(1, Math.min(threads, n / MIN_PARTICLES_PER_CHUNK));
+    }
+
+    /**
+     * @return the first index of the given chunk if <code>n</code> indices are cut into <code>nChunks</code> chunks
+     */
+    static int chunkStart(int n, int nChunks, int chunk) {
+        return (int) ((long) n * chunk / nChunks);
+    }
+
+    /**
+     * Makes sure that the buffers fit the given sizes.
+     */
+    void prepare(int n, int nChunks, int nContainers) {
+        if (bufferParticleContainers && (particleContainers == null || particleContainers.length != n)) {
+            particleContainers = new int[n];
+        }
+        if (histograms == null || histograms.length != nChunks
+                || histograms[0].length != nContainers) {
+            histograms = new int[nChunks][nContainers];
+        }
+        if (blockOffsets == null || blockOffsets.length != nChunks) {
+            blockOffsets = new int[nChunks];
+        }
+    }
+
+    /**
+     * @return whether the buffers already fit the given sizes
+     */
+    boolean isPrepared(int n, int nChunks, int nContainers) {
+        return particleContainers != null && particleContainers.length == n
+                && histograms.length == nChunks && histograms[0].length == nContainers;
+    }
+
+    /**
+     * Afterwards, <code>containers[ci]</code> is the index after the last particle in container <code>ci</code>.
+     *
+     * @param nChunks see {@link #chunkCount(int, int)}
+     */
+    void sort(int n, int nChunks, int[] containers,
+              ContainerIndexFunction containerIndexFunction, ParticleMover mover,
+              LoadDistributor loadDistributor, int threads) {
+        sort(n, nChunks, containers, containerIndexFunction, mover, false, loadDistributor, threads);
+    }
+
+    /**
+     * Same as {@link #sort(int, int, int[], ContainerIndexFunction, ParticleMover, LoadDistributor, int)}.
+     *
+     * @param counted whether {@link #particleContainers} and {@link #histograms} were already filled,
+     *                e.g. by the position update, in which case <code>containerIndexFunction</code> is not used.
+     *                Requires the particle containers to be buffered.
+     */
+    void sort(int n, int nChunks, int[] containers,
+              ContainerIndexFunction containerIndexFunction, ParticleMover mover, boolean counted,
+              LoadDistributor loadDistributor, int threads) {
+
+        final int nContainers = containers.length;
+        prepare(n, nChunks, nContainers);
+        final int[] particleContainers = this.particleContainers;
+        final int[][] histograms = this.histograms;
+        final int[] blockOffsets = this.blockOffsets;
+
+        // calculate container capacity per chunk
+        if (!counted) {
+            loadDistributor.distributeLoadEvenly(nChunks, threads, chunk -> {
+                int[] histogram = histograms[chunk];
+                Arrays.fill(histogram, 0);
+                int stop = chunkStart(n, nChunks, chunk + 1);
+                for (int i = chunkStart(n, nChunks, chunk); i < stop; i++) {
+                    int ci = containerIndexFunction.getContainerIndex(i);
+                    if (particleContainers != null) {
+                        particleContainers[i] = ci;
+                    }
+                    histogram[ci]++;
+                }
+                return true;
+            });
+        }
+
+        // capacity -> index, first the total of each block of containers ...
+        loadDistributor.distributeLoadEvenly(nChunks, threads, block -> {
+            int sum = 0;
+            int stop = chunkStart(nContainers, nChunks, block + 1);
+            for (int ci = chunkStart(nContainers, nChunks, block); ci < stop; ci++) {
+                for (int[] histogram : histograms) {
+                    sum += histogram[ci];
+                }
+            }
+            blockOffsets[block] = sum;
+            return true;
+        });
+        int offset = 0;
+        for (int block = 0; block < nChunks; block++) {
+            int sum = blockOffsets[block];
+            blockOffsets[block] = offset;
+            offset += sum;
+        }
+        // ... then the start index of each chunk in each container
+        loadDistributor.distributeLoadEvenly(nChunks, threads, block -> {
+            int blockOffset = blockOffsets[block];
+            int stop = chunkStart(nContainers, nChunks, block + 1);
+            for (int ci = chunkStart(nContainers, nChunks, block); ci < stop; ci++) {
+                for (int[] histogram : histograms) {
+                    int cap = histogram[ci];
+                    histogram[ci] = blockOffset;
+                    blockOffset += cap;
+                }
+                containers[ci] = blockOffset;
+            }
+            return true;
+        });
+
+        // fill particles into containers
+        loadDistributor.distributeLoadEvenly(nChunks, threads, chunk -> {
+            int[] histogram = histograms[chunk];
+            int stop = chunkStart(n, nChunks, chunk + 1);
+            if (particleContainers != null) {
+                for (int i = chunkStart(n, nChunks, chunk); i < stop; i++) {
+                    mover.move(i, histogram[particleContainers[i]]++);
+                }
+            } else {
+                for (int i = chunkStart(n, nChunks, chunk); i < stop; i++) {
+                    mover.move(i, histogram[containerIndexFunction.getContainerIndex(i)]++);
+                }
+            }
+            return true;
+        });
+    }
+}
@@ -0,0 +1,163 @@
+package com.particle_life;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a simulation into vertical strips that are simulated by separate {@link DomainWorker workers},
+ * which only exchange the particles near their borders (halos) and the particles that cross a border.
+ * <p>This class runs all workers in the current process, each on its own thread.
+ * With a {@link TcpTransport}, the same messages can also be sent between processes or machines,
+ * see {@link DomainWorker#main(String[])}.
+ * <p>The result matches {@link Physics} with a {@link PrimitiveAccelerator} up to floating-point rounding,
+ * as the forces are summed in a different order.
+ * The decomposition only supports 2D and ignores the z-coordinates.
+ * <pre>
+ * try (DomainDecomposition decomposition = DomainDecomposition.inProcess(physics, 4)) {
+ *     decomposition.update(1000);
+ *     decomposition.gather(physics);
+ * }
+ * </pre>
+ */
+public class DomainDecomposition implements AutoCloseable {
+
+    /**
+     * Shared by all workers. May be changed between calls to {@link #update(int)},
+     * except for {@link PhysicsSettings#wrap}.
+     */
+    public final PhysicsSettings settings;
+    private final DomainWorker[] workers;
+    private final HaloTransport[] transports;
+    private final ExecutorService executor;
+    private final int particleCount;
+    private boolean failed = false;
+
+    /**
+     * Distributes the particles of <code>source</code> among <code>transports.length</code> strips.
+     * A particle is identified by its {@link ParticleStore#id id} if array storage is enabled,
+     * otherwise by its index in {@link Physics#particles}.
+     * <p><code>source</code> is not modified.
+     *
+     * @param transports one connected endpoint per worker
+     */
+    public DomainDecomposition(Physics source, HaloTransport[] transports) {
+        final int tiles = transports.length;
+        this.transports = transports;
+        settings = source.settings.deepCopy();
+        workers = new DomainWorker[tiles];
+        for (int tile = 0; tile < tiles; tile++) {
+            workers[tile] = new DomainWorker(tile, tiles, settings, source.accelerator, transports[tile]);
+        }
+
+        ParticleStore store = source.getParticleStore();
+        particleCount = source.getParticleCount();
+        for (int i = 0; i < particleCount; i++) {
+            if (store != null) {
+                workers[DomainWorker.tileOf(store.x[i], tiles)].add(store.id[i], store.type[i],
+                        store.x[i], store.y[i], store.vx[i], store.vy[i]);
+            } else {
+                Particle p = source.particles[i];
+                workers[DomainWorker.tileOf(p.position.x, tiles)].add(i, p.type,
+                        p.position.x, p.position.y, p.velocity.x, p.velocity.y);
+            }
+        }
+
+        executor = Executors.newFixedThreadPool(tiles, runnable -> {
+            Thread thread = new Thread(runnable, "DomainWorker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a decomposition whose workers exchange messages through queues.
+     */
+    public static DomainDecomposition inProcess(Physics source, int tiles) {
+        return new DomainDecomposition(source, InProcessTransport.create(tiles));
+    }
+
+    /**
+     * Creates a decomposition whose workers exchange messages over TCP on the loopback interface.
+     * This is mostly useful to test the TCP transport.
+     */
+    public static DomainDecomposition loopback(Physics source, int tiles) throws IOException {
+        return new DomainDecomposition(source, TcpTransport.loopback(tiles));
+    }
+
+    public int getTiles() {
+        return workers.length;
+    }
+
+    public DomainWorker getWorker(int tile) {
+        return workers[tile];
+    }
+
+    public int getParticleCount() {
+        return particleCount;
+    }
+
+    /**
+     * Runs <code>steps</code> steps on all workers in parallel and waits until they are done.
+     * <p>If a worker fails, the others are interrupted and this decomposition can't be used anymore.
+     *
+     * @throws IllegalStateException if a particle moved further than one strip in a single step,
+     *                               or if the strips are narrower than rmax
+     */
+    public void update(int steps) throws IOException, InterruptedException {
+        if (failed) {
+            throw new IllegalStateException("A worker failed in a previous update.");
+        }
+        List<Future<?>> futures = new ArrayList<>(workers.length);
+        for (DomainWorker worker : workers) {
+            futures.add(executor.submit(() -> {
+                for (int step = 0; step < steps; step++) {
+                    worker.step();
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            // the other workers would wait for the failed worker forever
+            failed = true;
+            executor.shutdownNow();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) throw ioException;
+            if (cause instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Replaces the particles of <code>target</code> with the particles of all workers,
+     * ordered by their ids. This enables array storage for <code>target</code>.
+     * Must not be called while {@link #update(int)} is running.
+     */
+    public void gather(Physics target) {
+        ParticleStore store = new ParticleStore(particleCount);
+        for (DomainWorker worker : workers) {
+            worker.gather(store);
+        }
+        target.setArrayStorage(true);
+        target.setParticleStore(store);
+    }
+
+    /**
+     * Stops the worker threads and closes the transports.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        for (HaloTransport transport : transports) {
+            transport.close();
+        }
+    }
+}
@@ -0,0 +1,574 @@
+package com.particle_life;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Simulates the particles in one vertical strip <code>[tile / tiles, (tile + 1) / tiles)</code> (in x) of the world
+ * and exchanges particles with the workers of the neighboring strips through a {@link HaloTransport}.
+ * <p>Each {@link #step()} consists of:
+ * <ol>
+ *     <li>sending all particles within rmax of the left and right border to the neighbors (the halo)
+ *     and receiving the neighbors' halos as read-only ghost particles,</li>
+ *     <li>updating the velocities and positions of the owned particles with the same formulas as {@link Physics},</li>
+ *     <li>handing particles that left the strip over to the neighbor that now owns them (migration).</li>
+ * </ol>
+ * All workers of a {@link DomainDecomposition} must call {@link #step()} equally often,
+ * as each step waits for the neighbors' messages.
+ * <p>Because forces only reach the neighboring strips, each strip must be at least rmax wide.
+ * A particle must not move further than one strip in a single step.
+ * <p>Only the x-axis is divided, so wrapping in y is handled locally.
+ * Wrapping in x is handled by making the first and the last strip neighbors
+ * and shifting their ghosts by one world width.
+ */
+public class DomainWorker {
+
+    // channels, named by the direction in which the messages travel
+    static final int HALO_TO_LEFT = 0;
+    static final int HALO_TO_RIGHT = 1;
+    static final int MIGRATION_TO_LEFT = 2;
+    static final int MIGRATION_TO_RIGHT = 3;
+    static final int GATHER = 4;
+
+    private static final int GHOST_BYTES = 2 * Double.BYTES + Integer.BYTES;
+    private static final int PARTICLE_BYTES = 2 * Integer.BYTES + 4 * Double.BYTES;
+
+    public final int tile;
+    public final int tiles;
+    /**
+     * Read at the beginning of each {@link #step()}, so it may be changed between steps.
+     * Only <code>wrap</code> must be the same for all workers and must not change.
+     */
+    public PhysicsSettings settings;
+    private final PrimitiveAccelerator accelerator;
+    private final HaloTransport transport;
+
+    private final double x0;
+    private final double x1;
+    /**
+     * Neighboring workers, or -1 if there is none.
+     */
+    private final int left;
+    private final int right;
+
+    // owned particles
+    private int count = 0;
+    private int[] id = new int[0];
+    private int[] type = new int[0];
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private double[] vx = new double[0];
+    private double[] vy = new double[0];
+
+    // owned particles and ghosts, sorted into cells
+    private int cellsX;
+    private int cellsY;
+    private double cellWidth;
+    private double cellHeight;
+    private double cellOriginX;
+    private int[][] neighborRows;
+    private int[] cells = new int[0];
+    private int[] cellOf = new int[0];
+    private double[] unsortedX = new double[0];
+    private double[] unsortedY = new double[0];
+    private int[] unsortedType = new int[0];
+    private double[] sortedX = new double[0];
+    private double[] sortedY = new double[0];
+    private int[] sortedType = new int[0];
+
+    private double[] matrixValues = new double[0];
+    private int matrixSize;
+    private final double[] acceleration = new double[3];
+    private int[] outgoing = new int[0];
+
+    /**
+     * @param tile      index of this worker's strip, counted from x = 0
+     * @param tiles     total number of strips
+     * @param transport must connect this worker (as worker <code>tile</code>) with the other workers
+     */
+    public DomainWorker(int tile, int tiles, PhysicsSettings settings, Accelerator accelerator, HaloTransport transport) {
+        if (tile < 0 || tile >= tiles) {
+            throw new IllegalArgumentException("Tile %d is not in [0, %d).".formatted(tile, tiles));
+        }
+        this.tile = tile;
+        this.tiles = tiles;
+        this.settings = settings;
+        this.accelerator = accelerator instanceof PrimitiveAccelerator a ? a : new AcceleratorAdapter(accelerator);
+        this.transport = transport;
+        checkTileWidth();
+
+        x0 = tile / (double) tiles;
+        x1 = (tile + 1) / (double) tiles;
+        if (settings.wrap) {
+            left = (tile + tiles - 1) % tiles;
+            right = (tile + 1) % tiles;
+        } else {
+            left = tile > 0 ? tile - 1 : -1;
+            right = tile < tiles - 1 ? tile + 1 : -1;
+        }
+    }
+
+    private void checkTileWidth() {
+        if (tiles > 1 && 1.0 / tiles < settings.rmax) {
+            throw new IllegalStateException("Strips of width 1/%d are narrower than rmax = %s.".formatted(tiles, settings.rmax));
+        }
+    }
+
+    /**
+     * @return the index of the strip that contains the x-coordinate
+     */
+    public static int tileOf(double x, int tiles) {
+        return Math.max(0, Math.min(tiles - 1, (int) (x * tiles)));
+    }
+
+    /**
+     * Adds a particle to this worker. Its position should be inside this worker's strip.
+     *
+     * @param id identifies the particle across all workers, e.g. for {@link #gather(ParticleStore)}
+     */
+    public void add(int id, int type, double x, double y, double vx, double vy) {
+        if (count == this.id.length) {
+            ensureCapacity(Math.max(16, 2 * count));
+        }
+        this.id[count] = id;
+        this.type[count] = type;
+        this.x[count] = x;
+        this.y[count] = y;
+        this.vx[count] = vx;
+        this.vy[count] = vy;
+        count++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= id.length) return;
+        id = Arrays.copyOf(id, capacity);
+        type = Arrays.copyOf(type, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+    }
+
+    /**
+     * @return the number of particles that are currently owned by this worker
+     */
+    public int getParticleCount() {
+        return count;
+    }
+
+    /**
+     * Writes the owned particles into <code>target</code>, each at the index given by its id.
+     */
+    public void gather(ParticleStore target) {
+        for (int i = 0; i < count; i++) {
+            int k = id[i];
+            target.type[k] = type[i];
+            target.x[k] = x[i];
+            target.y[k] = y[i];
+            target.z[k] = 0;
+            target.vx[k] = vx[i];
+            target.vy[k] = vy[i];
+            target.vz[k] = 0;
+        }
+    }
+
+    /**
+     * Advances the owned particles by one time step.
+     * Blocks until the neighbors have sent their halos and migrated particles.
+     */
+    public void step() throws IOException, InterruptedException {
+        checkTileWidth();
+        updateMatrixValues();
+        int ghosts = exchangeHalo();
+        sortIntoCells(ghosts);
+        updateParticles();
+        migrate();
+    }
+
+    private void updateMatrixValues() {
+        final Matrix matrix = settings.matrix;
+        matrixValues = EngineSupport.matrixValues(matrix, matrixValues);
+        matrixSize = matrix.size();
+    }
+
+    /**
+     * Sends the halos to the neighbors and appends the received ghosts to the sort buffers,
+     * after the owned particles.
+     *
+     * @return the number of ghosts
+     */
+    private int exchangeHalo() throws IOException, InterruptedException {
+        final double rmax = settings.rmax;
+        if (left != -1) {
+            transport.send(left, HALO_TO_LEFT, packHalo(i -> x[i] - x0 <= rmax));
+        }
+        if (right != -1) {
+            transport.send(right, HALO_TO_RIGHT, packHalo(i -> x1 - x[i] <= rmax));
+        }
+
+        ByteBuffer fromLeft = left != -1 ? transport.receive(left, HALO_TO_RIGHT) : null;
+        ByteBuffer fromRight = right != -1 ? transport.receive(right, HALO_TO_LEFT) : null;
+        int ghosts = (fromLeft != null ? fromLeft.getInt(fromLeft.position()) : 0)
+                + (fromRight != null ? fromRight.getInt(fromRight.position()) : 0);
+
+        int n = count + ghosts;
+        if (unsortedX.length < n) {
+            int capacity = Math.max(n, 2 * unsortedX.length);
+            unsortedX = new double[capacity];
+            unsortedY = new double[capacity];
+            unsortedType = new int[capacity];
+            sortedX = new double[capacity];
+            sortedY = new double[capacity];
+            sortedType = new int[capacity];
+            cellOf = new int[capacity];
+        }
+        System.arraycopy(x, 0, unsortedX, 0, count);
+        System.arraycopy(y, 0, unsortedY, 0, count);
+        System.arraycopy(type, 0, unsortedType, 0, count);
+
+        int k = count;
+        // only the first and the last strip receive ghosts across the seam of the world
+        if (fromLeft != null) {
+            k = unpackHalo(fromLeft, k, tile == 0 ? -1 : 0);
+        }
+        if (fromRight != null) {
+            unpackHalo(fromRight, k, tile == tiles - 1 ? 1 : 0);
+        }
+        return ghosts;
+    }
+
+    private interface ParticleFilter {
+        boolean test(int i);
+    }
+
+    private ByteBuffer packHalo(ParticleFilter filter) {
+        int selected = select(filter);
+        ByteBuffer message = ByteBuffer.allocate(Integer.BYTES + selected * GHOST_BYTES);
+        message.putInt(selected);
+        for (int k = 0; k < selected; k++) {
+            int i = outgoing[k];
+            message.putDouble(x[i]);
+            message.putDouble(y[i]);
+            message.putInt(type[i]);
+        }
+        return message.flip();
+    }
+
+    private int unpackHalo(ByteBuffer message, int k, double shiftX) {
+        int n = message.getInt();
+        for (int j = 0; j < n; j++) {
+            unsortedX[k] = message.getDouble() + shiftX;
+            unsortedY[k] = message.getDouble();
+            unsortedType[k] = message.getInt();
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * Writes the indices of the selected owned particles into {@link #outgoing}.
+     *
+     * @return the number of selected particles
+     */
+    private int select(ParticleFilter filter) {
+        if (outgoing.length < count) {
+            outgoing = new int[count];
+        }
+        int selected = 0;
+        for (int i = 0; i < count; i++) {
+            if (filter.test(i)) {
+                outgoing[selected++] = i;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Sorts the owned particles and the ghosts into a grid of cells that covers the strip and the halos.
+     * Each cell is at least rmax wide and high.
+     * Afterwards, <code>cells[ci]</code> is the end index of cell <code>ci</code> in the sorted arrays.
+     */
+    private void sortIntoCells(int ghosts) {
+        final double rmax = settings.rmax;
+        final int n = count + ghosts;
+
+        cellOriginX = x0 - rmax;
+        double width = x1 - x0 + 2 * rmax;
+        int newCellsX = Math.max(1, (int) Math.floor(width / rmax));
+        int newCellsY = Math.max(1, (int) Math.floor(1 / rmax));
+        if (newCellsX != cellsX || newCellsY != cellsY || neighborRows == null) {
+            cellsX = newCellsX;
+            cellsY = newCellsY;
+            cells = new int[cellsX * cellsY];
+            neighborRows = EngineSupport.makeNeighbors(cellsY, settings.wrap);
+        }
+        cellWidth = width / cellsX;
+        cellHeight = 1.0 / cellsY;
+
+        Arrays.fill(cells, 0);
+        for (int i = 0; i < n; i++) {
+            int ci = getCellX(unsortedX[i]) + getCellY(unsortedY[i]) * cellsX;
+            cellOf[i] = ci;
+            cells[ci]++;
+        }
+        // prefix sums, cells[ci] is now the end of cell ci
+        for (int ci = 1; ci < cells.length; ci++) {
+            cells[ci] += cells[ci - 1];
+        }
+
+        // place the particles from the back of each cell, which moves the ends back to the starts
+        for (int i = n - 1; i >= 0; i--) {
+            int k = --cells[cellOf[i]];
+            sortedX[k] = unsortedX[i];
+            sortedY[k] = unsortedY[i];
+            sortedType[k] = unsortedType[i];
+        }
+        // shift, so that cells[ci] is the end of cell ci again
+        System.arraycopy(cells, 1, cells, 0, cells.length - 1);
+        cells[cells.length - 1] = n;
+    }
+
+    private int getCellX(double x) {
+        return Math.max(0, Math.min(cellsX - 1, (int) Math.floor((x - cellOriginX) / cellWidth)));
+    }
+
+    private int getCellY(double y) {
+        return Math.max(0, Math.min(cellsY - 1, (int) Math.floor(y / cellHeight)));
+    }
+
+    /**
+     * Updates the velocities and positions of the owned particles.
+     * The positions of other particles are read from the sorted arrays,
+     * so the positions can be updated in place.
+     */
+    private void updateParticles() {
+        final PhysicsSettings settings = this.settings;
+        final boolean wrap = settings.wrap;
+        final double rmax = settings.rmax;
+        final double dt = settings.dt;
+        final double frictionFactor = Math.pow(settings.friction, 60 * dt);  // is normalized to 60 fps
+        final double forceFactor = rmax * settings.force * dt;
+        final double[] matrix = matrixValues;
+        final double[] acceleration = this.acceleration;
+
+        for (int i = 0; i < count; i++) {
+            final double px = x[i];
+            final double py = y[i];
+            final int matrixRow = type[i] * matrixSize;
+
+            double vx = this.vx[i] * frictionFactor;
+            double vy = this.vy[i] * frictionFactor;
+
+            int cx0 = getCellX(px);
+            for (int row : neighborRows[getCellY(py)]) {
+                for (int cx = Math.max(0, cx0 - 1); cx <= Math.min(cellsX - 1, cx0 + 1); cx++) {
+                    int ci = cx + row * cellsX;
+                    int start = ci == 0 ? 0 : cells[ci - 1];
+                    int stop = cells[ci];
+                    for (int j = start; j < stop; j++) {
+                        double dx = sortedX[j] - px;
+                        double dy = sortedY[j] - py;
+                        if (wrap) {
+                            // x doesn't need to be wrapped, as the ghosts were already shifted
+                            dy = Range.wrapConnection(dy);
+                        }
+                        double distanceSquared = dx * dx + dy * dy;
+                        // the particle itself is skipped by the distance check
+                        if (distanceSquared != 0 && distanceSquared <= rmax * rmax) {
+                            accelerator.accelerate(matrix[matrixRow + sortedType[j]],
+                                    dx / rmax, dy / rmax, 0, acceleration);
+                            vx += acceleration[0] * forceFactor;
+                            vy += acceleration[1] * forceFactor;
+                        }
+                    }
+                }
+            }
+
+            this.vx[i] = vx;
+            this.vy[i] = vy;
+            if (wrap) {
+                x[i] = Range.wrap(px + vx * dt);
+                y[i] = Range.wrap(py + vy * dt);
+            } else {
+                x[i] = Range.clamp(px + vx * dt);
+                y[i] = Range.clamp(py + vy * dt);
+            }
+        }
+    }
+
+    /**
+     * Hands particles that left the strip over to the neighbors and adds the particles that they handed over.
+     */
+    private void migrate() throws IOException, InterruptedException {
+        if (left != -1) {
+            transport.send(left, MIGRATION_TO_LEFT, packParticles(i -> leavesTo(i, left)));
+        }
+        if (right != -1 && right != left) {
+            transport.send(right, MIGRATION_TO_RIGHT, packParticles(i -> leavesTo(i, right)));
+        }
+
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int owner = tileOf(x[i], tiles);
+            if (owner == tile) {
+                id[kept] = id[i];
+                type[kept] = type[i];
+                x[kept] = x[i];
+                y[kept] = y[i];
+                vx[kept] = vx[i];
+                vy[kept] = vy[i];
+                kept++;
+            } else if (owner != left && owner != right) {
+                throw new IllegalStateException("Particle %d moved from strip %d to strip %d in one step."
+                        .formatted(id[i], tile, owner));
+            }
+        }
+        count = kept;
+
+        if (left != -1) {
+            // if there is only one neighbor on both sides, it sends everything to its left
+            unpackParticles(transport.receive(left, right == left ? MIGRATION_TO_LEFT : MIGRATION_TO_RIGHT));
+        }
+        if (right != -1 && right != left) {
+            unpackParticles(transport.receive(right, MIGRATION_TO_LEFT));
+        }
+    }
+
+    private boolean leavesTo(int i, int neighbor) {
+        int owner = tileOf(x[i], tiles);
+        return owner != tile && owner == neighbor;
+    }
+
+    private ByteBuffer packParticles(ParticleFilter filter) {
+        int selected = select(filter);
+        ByteBuffer message = ByteBuffer.allocate(Integer.BYTES + selected * PARTICLE_BYTES);
+        message.putInt(selected);
+        for (int k = 0; k < selected; k++) {
+            int i = outgoing[k];
+            message.putInt(id[i]);
+            message.putInt(type[i]);
+            message.putDouble(x[i]);
+            message.putDouble(y[i]);
+            message.putDouble(vx[i]);
+            message.putDouble(vy[i]);
+        }
+        return message.flip();
+    }
+
+    private void unpackParticles(ByteBuffer message) {
+        int n = message.getInt();
+        ensureCapacity(count + n);
+        for (int k = 0; k < n; k++) {
+            add(message.getInt(), message.getInt(), message.getDouble(), message.getDouble(),
+                    message.getDouble(), message.getDouble());
+        }
+    }
+
+    /**
+     * Sends all owned particles to worker <code>root</code>.
+     * If this is the root, also collects the particles of all workers into <code>target</code>,
+     * each at the index given by its id.
+     *
+     * @param target only used by the root, must be large enough for all ids
+     */
+    void gatherTo(int root, ParticleStore target) throws IOException, InterruptedException {
+        transport.send(root, GATHER, packParticles(i -> true));
+        if (tile != root) return;
+
+        for (int from = 0; from < tiles; from++) {
+            ByteBuffer message = transport.receive(from, GATHER);
+            int n = message.getInt();
+            for (int k = 0; k < n; k++) {
+                int i = message.getInt();
+                target.type[i] = message.getInt();
+                target.x[i] = message.getDouble();
+                target.y[i] = message.getDouble();
+                target.z[i] = 0;
+                target.vx[i] = message.getDouble();
+                target.vy[i] = message.getDouble();
+                target.vz[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Runs one worker of a decomposition whose workers run in separate processes and communicate over TCP.
+     * Each worker loads the same checkpoint and keeps the particles in its own strip.
+     * After the last step, the particles are collected by worker 0, which saves them.
+     * <p>Options:
+     * <pre>
+     * --tile=K                index of this worker
+     * --hosts=H:P,H:P,...     address of each worker, the number of workers is the number of addresses
+     * --load=FILE             initial state
+     * --steps=N               number of steps (default 1000)
+     * --checkpoint=FILE       where worker 0 saves the final state (default: overwrite the loaded file)
+     * </pre>
+     * Particles are identified by their index in the loaded checkpoint, so the saved particles are in the same order.
+     * <p>The accelerator is always a {@link ParticleLifeAccelerator}.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int tile = -1;
+        InetSocketAddress[] addresses = null;
+        Path load = null;
+        Path checkpoint = null;
+        int steps = 1000;
+
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            String value = option.length > 1 ? option[1] : "";
+            switch (option[0]) {
+                case "--tile" -> tile = Integer.parseInt(value);
+                case "--hosts" -> addresses = Arrays.stream(value.split(",")).map(host -> {
+                    int colon = host.lastIndexOf(':');
+                    return new InetSocketAddress(host.substring(0, colon), Integer.parseInt(host.substring(colon + 1)));
+                }).toArray(InetSocketAddress[]::new);
+                case "--load" -> load = Path.of(value);
+                case "--steps" -> steps = Integer.parseInt(value);
+                case "--checkpoint" -> checkpoint = Path.of(value);
+                default -> {
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+                }
+            }
+        }
+        if (tile < 0 || addresses == null || load == null) {
+            System.err.println("Options --tile, --hosts and --load are required.");
+            System.exit(2);
+        }
+
+        Physics physics = new Physics(new ParticleLifeAccelerator());
+        physics.setArrayStorage(true);
+        Checkpoint.load(physics, load);
+        ParticleStore store = physics.getParticleStore();
+        final int n = store.size();
+        final int tiles = addresses.length;
+
+        try (TcpTransport transport = new TcpTransport(tile, addresses)) {
+            DomainWorker worker = new DomainWorker(tile, tiles, physics.settings, physics.accelerator, transport);
+            for (int i = 0; i < n; i++) {
+                if (tileOf(store.x[i], tiles) == tile) {
+                    worker.add(i, store.type[i], store.x[i], store.y[i], store.vx[i], store.vy[i]);
+                }
+            }
+
+            long startTime = System.nanoTime();
+            for (int step = 0; step < steps; step++) {
+                worker.step();
+            }
+            double seconds = (System.nanoTime() - startTime) * 1e-9;
+            System.out.printf("tile %d: %d steps in %.3f s, %d particles owned%n",
+                    tile, steps, seconds, worker.getParticleCount());
+
+            ParticleStore result = new ParticleStore(n);
+            worker.gatherTo(0, result);
+            if (tile == 0) {
+                physics.setParticleStore(result);
+                Checkpoint.save(physics, checkpoint != null ? checkpoint : load);
+            }
+        }
+        physics.shutdown(1000);
+    }
+}
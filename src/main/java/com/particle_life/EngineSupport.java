@@ -0,0 +1,74 @@
+package com.particle_life;
+
+/**
+ * Helpers that the simulation engines share, next to {@link ParticleControl}.
+ */
+class EngineSupport {
+
+    private EngineSupport() {
+    }
+
+    /**
+     * Copies the matrix in row-major order, i.e. the entry at (i, j) is written to
+     * <code>dest[i * size + j]</code>.
+     *
+     * @param dest is reused if it has the right length
+     * @return <code>dest</code> or a new array of length <code>size * size</code>
+     */
+    static double[] matrixValues(Matrix matrix, double[] dest) {
+        final int size = matrix.size();
+        if (dest == null || dest.length != size * size) {
+            dest = new double[size * size];
+        }
+        if (matrix instanceof DefaultMatrix defaultMatrix) {
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(defaultMatrix.values[i], 0, dest, i * size, size);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    dest[i * size + j] = matrix.get(i, j);
+                }
+            }
+        }
+        return dest;
+    }
+
+    /**
+     * Single-precision version of {@link #matrixValues(Matrix, double[])}.
+     */
+    static float[] matrixValues(Matrix matrix, float[] dest) {
+        final int size = matrix.size();
+        if (dest == null || dest.length != size * size) {
+            dest = new float[size * size];
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                dest[i * size + j] = (float) matrix.get(i, j);
+            }
+        }
+        return dest;
+    }
+
+    /**
+     * @return for each of the <code>n</code> columns (or rows), the distinct columns (or rows) within a distance of 1
+     */
+    static int[][] makeNeighbors(int n, boolean wrap) {
+        int[][] neighbors = new int[n][];
+        for (int c = 0; c < n; c++) {
+            if (n < 3 && wrap) {
+                // all columns are neighbors, but each one must only be checked once
+                neighbors[c] = new int[n];
+                for (int k = 0; k < n; k++) neighbors[c][k] = k;
+            } else {
+                int first = wrap ? c - 1 : Math.max(0, c - 1);
+                int last = wrap ? c + 1 : Math.min(n - 1, c + 1);
+                neighbors[c] = new int[last - first + 1];
+                for (int k = first; k <= last; k++) {
+                    neighbors[c][k - first] = (k + n) % n;
+                }
+            }
+        }
+        return neighbors;
+    }
+}
@@ -0,0 +1,18 @@
+package com.particle_life;
+
+/**
+ * Single-precision version of {@link RadialAccelerator}, used by {@link FloatPhysics}.
+ */
+public interface FloatAccelerator {
+
+    /**
+     * Must be safe to call from multiple threads.
+     *
+     * @param a The entry of the matrix at index (i, j), where i is the type of the regarded particle and j the type of the other particle.
+     * @param r The distance between the particles divided by rmax, in (0, 1].
+     * @return The magnitude of the acceleration, relative to rmax.
+     *         Positive values accelerate the particle towards the other particle.
+     * @see RadialAccelerator#force(double, double)
+     */
+    float force(float a, float r);
+}
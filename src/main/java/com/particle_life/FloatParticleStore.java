@@ -0,0 +1,85 @@
+package com.particle_life;
+
+import java.util.Arrays;
+
+/**
+ * Single-precision version of {@link ParticleStore}, used by {@link FloatPhysics}.
+ * <p>Only stores x and y, as {@link Physics} doesn't simulate the z-axis yet either.
+ */
+public class FloatParticleStore {
+
+    public float[] x;
+    public float[] y;
+    public float[] vx;
+    public float[] vy;
+    public int[] type;
+    /**
+     * @see ParticleStore#id
+     */
+    public int[] id;
+
+    public FloatParticleStore(int size) {
+        x = new float[size];
+        y = new float[size];
+        vx = new float[size];
+        vy = new float[size];
+        type = new int[size];
+        id = new int[size];
+        resetIds();
+    }
+
+    /**
+     * @return the number of particles in this store
+     */
+    public int size() {
+        return type.length;
+    }
+
+    /**
+     * Changes the number of particles.
+     * The first <code>min(n, size())</code> particles are kept,
+     * new particles are initialized with zeros.
+     *
+     * @param n the new number of particles
+     */
+    public void resize(int n) {
+        if (n == size()) return;
+        x = Arrays.copyOf(x, n);
+        y = Arrays.copyOf(y, n);
+        vx = Arrays.copyOf(vx, n);
+        vy = Arrays.copyOf(vy, n);
+        type = Arrays.copyOf(type, n);
+        id = Arrays.copyOf(id, n);
+    }
+
+    /**
+     * Numbers the particles from 0 to <code>size() - 1</code> in their current order.
+     */
+    public void resetIds() {
+        for (int i = 0; i < id.length; i++) {
+            id[i] = i;
+        }
+    }
+
+    /**
+     * Copies the particle at index <code>i</code> to index <code>j</code> of <code>dest</code>.
+     */
+    void copy(int i, FloatParticleStore dest, int j) {
+        dest.x[j] = x[i];
+        dest.y[j] = y[i];
+        dest.vx[j] = vx[i];
+        dest.vy[j] = vy[i];
+        dest.type[j] = type[i];
+        dest.id[j] = id[i];
+    }
+
+    void swap(int i, int j) {
+        float h;
+        h = x[i]; x[i] = x[j]; x[j] = h;
+        h = y[i]; y[i] = y[j]; y[j] = h;
+        h = vx[i]; vx[i] = vx[j]; vx[j] = h;
+        h = vy[i]; vy[i] = vy[j]; vy[j] = h;
+        int t = type[i]; type[i] = type[j]; type[j] = t;
+        t = id[i]; id[i] = id[j]; id[j] = t;
+    }
+}
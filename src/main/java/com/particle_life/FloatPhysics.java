@@ -0,0 +1,410 @@
+package com.particle_life;
+
+import org.joml.Vector3d;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single-precision variant of {@link Physics}.
+ * <p>Positions, velocities, the matrix and the force computation use <code>float</code> instead of <code>double</code>,
+ * which halves the memory that is moved in each update. This pays off for large numbers of particles,
+ * where the simulation is limited by memory bandwidth rather than by computation.
+ * The particles drift apart from a {@link Physics} simulation with the same initial state over time,
+ * as the rounding errors add up differently (compare with <code>./gradlew floatDrift</code>).
+ * <p>The particles are always stored as arrays, see {@link #getParticleStore()}.
+ * Compared to {@link Physics}, the following is not supported:
+ * container subdivision, symmetric pairs, neighbor lists, the SIMD kernel and update listeners.
+ * The settings are taken from {@link #settings} (which stay in double precision)
+ * at the beginning of each update.
+ */
+public class FloatPhysics {
+
+    public PhysicsSettings settings = new PhysicsSettings();
+
+    private FloatParticleStore store = new FloatParticleStore(0);
+    private FloatParticleStore storeBuffer = null;
+    private final ParticleControl control = new FloatStoreControl();
+
+    // containers with an edge length of at least rmax:
+    private int nx = 0;
+    private int ny = 0;
+    private boolean containersWrap;
+    /**
+     * <code>containers[ci]</code> is the index after the last particle in container <code>ci</code>.
+     */
+    private int[] containers;
+    private final ContainerSorter containerSorter = new ContainerSorter();
+    /**
+     * The columns and rows of the containers that must be checked for each column / row.
+     * Only contains each column / row once, even if there are less than 3 columns / rows.
+     */
+    private int[][] neighborColumns;
+    private int[][] neighborRows;
+
+    /**
+     * Copy of {@link PhysicsSettings#matrix} in row-major order, taken at the beginning of each update.
+     */
+    private float[] matrixValues = new float[0];
+    private int matrixSize = 0;
+
+    public FloatAccelerator accelerator;
+    public MatrixGenerator matrixGenerator;
+    public PositionSetter positionSetter;
+    /**
+     * @see Physics#typeSetter
+     */
+    public TypeSetter typeSetter;
+
+    public int preferredNumberOfThreads = 12;
+    private final LoadDistributor loadDistributor = new LoadDistributor();
+
+    /**
+     * This is used to stop the updating mid-process (e.g. when the particle count changes)
+     */
+    private final AtomicBoolean updateThreadsShouldRun = new AtomicBoolean(false);
+
+    public FloatPhysics(FloatAccelerator accelerator) {
+        this(accelerator, new DefaultPositionSetter(), new DefaultMatrixGenerator(), new DefaultTypeSetter());
+    }
+
+    public FloatPhysics(FloatAccelerator accelerator,
+                        PositionSetter positionSetter,
+                        MatrixGenerator matrixGenerator,
+                        TypeSetter typeSetter) {
+
+        this.accelerator = accelerator;
+        this.positionSetter = positionSetter;
+        this.matrixGenerator = matrixGenerator;
+        this.typeSetter = typeSetter;
+
+        generateMatrix();
+        setParticleCount(10000);  // uses current position setter to create particles
+    }
+
+    /**
+     * Copies the settings and the particles of <code>physics</code>,
+     * including the {@link ParticleStore#id particle ids} if array storage is enabled.
+     * The accelerator, the position setter and so on are not copied.
+     */
+    public void copyFrom(Physics physics) {
+        settings = physics.settings.deepCopy();
+        int n = physics.getParticleCount();
+        store = new FloatParticleStore(n);
+        ParticleStore s = physics.getParticleStore();
+        if (s != null) {
+            for (int i = 0; i < n; i++) {
+                store.x[i] = (float) s.x[i];
+                store.y[i] = (float) s.y[i];
+                store.vx[i] = (float) s.vx[i];
+                store.vy[i] = (float) s.vy[i];
+                store.type[i] = s.type[i];
+                store.id[i] = s.id[i];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                Particle p = physics.particles[i];
+                store.x[i] = (float) p.position.x;
+                store.y[i] = (float) p.position.y;
+                store.vx[i] = (float) p.velocity.x;
+                store.vy[i] = (float) p.velocity.y;
+                store.type[i] = p.type;
+            }
+        }
+        // positions that were just below 1 may have been rounded to 1
+        for (int i = 0; i < n; i++) {
+            store.x[i] = ensurePosition(store.x[i]);
+            store.y[i] = ensurePosition(store.y[i]);
+        }
+    }
+
+    /**
+     * Calculate the next step in the simulation.
+     *
+     * @see Physics#update()
+     */
+    public void update() {
+        updateThreadsShouldRun.set(true);
+
+        updateMatrixValues();
+        makeContainers();
+        updateVelocities();
+        updatePositions();
+
+        updateThreadsShouldRun.set(false);
+    }
+
+    public void forceUpdateStop() {
+        updateThreadsShouldRun.set(false);
+    }
+
+    /**
+     * @see Physics#shutdown(long)
+     */
+    public boolean shutdown(long timeoutMilliseconds) throws InterruptedException {
+        return loadDistributor.shutdown(timeoutMilliseconds);
+    }
+
+    /**
+     * Note that {@link #update()} swaps the store with an internal buffer,
+     * so the returned object is only valid until the next call to {@link #update()}.
+     */
+    public FloatParticleStore getParticleStore() {
+        return store;
+    }
+
+    public int getParticleCount() {
+        return store.size();
+    }
+
+    private void updateMatrixValues() {
+        final Matrix matrix = settings.matrix;
+        matrixValues = EngineSupport.matrixValues(matrix, matrixValues);
+        matrixSize = matrix.size();
+    }
+
+    private void makeContainers() {
+        int newNx = Math.max(1, (int) Math.floor(1 / settings.rmax));
+        if (newNx != nx || settings.wrap != containersWrap) {
+            nx = newNx;
+            ny = newNx;
+            containersWrap = settings.wrap;
+            containers = new int[nx * ny];
+            neighborColumns = EngineSupport.makeNeighbors(nx, containersWrap);
+            neighborRows = EngineSupport.makeNeighbors(ny, containersWrap);
+        }
+
+        final FloatParticleStore s = store;
+        final int n = s.size();
+        if (storeBuffer == null || storeBuffer.size() != n) {
+            storeBuffer = new FloatParticleStore(n);
+        }
+
+        final FloatParticleStore buffer = storeBuffer;
+        containerSorter.sort(n, ContainerSorter.chunkCount(n, preferredNumberOfThreads), containers,
+                i -> getContainerIndex(s.x[i], s.y[i]),
+                (i, j) -> s.copy(i, buffer, j),
+                loadDistributor, preferredNumberOfThreads);
+
+        // swap buffers
+        FloatParticleStore h = store;
+        store = storeBuffer;
+        storeBuffer = h;
+    }
+
+    private int getContainerIndex(float x, float y) {
+        return getContainerX(x) + getContainerY(y) * nx;
+    }
+
+    private int getContainerX(float x) {
+        int cx = (int) (x * nx);
+        // for solid borders
+        return cx >= nx ? nx - 1 : cx;
+    }
+
+    private int getContainerY(float y) {
+        int cy = (int) (y * ny);
+        // for solid borders
+        return cy >= ny ? ny - 1 : cy;
+    }
+
+    private void updateVelocities() {
+        loadDistributor.distributeLoadEvenly(store.size(), preferredNumberOfThreads, i -> {
+            if (!updateThreadsShouldRun.get()) return false;
+            updateVelocity(i);
+            return true;
+        });
+    }
+
+    private void updateVelocity(int i) {
+        final FloatParticleStore s = store;
+        final float px = s.x[i];
+        final float py = s.y[i];
+
+        // apply friction before adding new velocity
+        final float frictionFactor = (float) Math.pow(settings.friction, 60 * settings.dt);  // is normalized to 60 fps
+        float vx = s.vx[i] * frictionFactor;
+        float vy = s.vy[i] * frictionFactor;
+
+        final float rmax = (float) settings.rmax;
+        final float forceFactor = (float) (settings.rmax * settings.force * settings.dt);
+        final boolean wrap = settings.wrap;
+        final float[] matrix = matrixValues;
+        final int matrixRow = s.type[i] * matrixSize;
+
+        for (int cy : neighborRows[getContainerY(py)]) {
+            for (int cx : neighborColumns[getContainerX(px)]) {
+                int ci = cx + cy * nx;
+                int start = ci == 0 ? 0 : containers[ci - 1];
+                int stop = containers[ci];
+
+                for (int j = start; j < stop; j++) {
+                    if (i == j) continue;
+
+                    float dx = s.x[j] - px;
+                    float dy = s.y[j] - py;
+                    if (wrap) {
+                        // wrapping the connection gives us the shortest possible distance
+                        dx = wrapConnection(dx);
+                        dy = wrapConnection(dy);
+                    }
+
+                    float distanceSquared = dx * dx + dy * dy;
+                    // only check particles that are closer than or at rmax
+                    if (distanceSquared != 0 && distanceSquared <= rmax * rmax) {
+                        float r = (float) Math.sqrt(distanceSquared);
+                        float f = accelerator.force(matrix[matrixRow + s.type[j]], r / rmax) * forceFactor / r;
+                        vx += dx * f;
+                        vy += dy * f;
+                    }
+                }
+            }
+        }
+
+        s.vx[i] = vx;
+        s.vy[i] = vy;
+    }
+
+    private static float wrapConnection(float value) {
+        if (value < -0.5f) {
+            return value + 1;
+        } else if (value >= 0.5f) {
+            return value - 1;
+        }
+        return value;
+    }
+
+    private void updatePositions() {
+        final FloatParticleStore s = store;
+        final float dt = (float) settings.dt;
+        loadDistributor.distributeLoadEvenly(s.size(), preferredNumberOfThreads, i -> {
+            if (!updateThreadsShouldRun.get()) return false;
+            s.x[i] = ensurePosition(s.x[i] + s.vx[i] * dt);
+            s.y[i] = ensurePosition(s.y[i] + s.vy[i] * dt);
+            return true;
+        });
+    }
+
+    /**
+     * Wraps or clamps a coordinate into the world, depending on {@link PhysicsSettings#wrap}.
+     */
+    private float ensurePosition(float value) {
+        if (settings.wrap) {
+            while (value < 0) {
+                value += 1;
+            }
+            // also catches values just below 0 that were rounded to 1 above
+            while (value >= 1) {
+                value -= 1;
+            }
+            return value;
+        }
+        return Math.max(0, Math.min(1, value));
+    }
+
+    /**
+     * @see Physics#setParticleCount(int)
+     */
+    public void setParticleCount(int n) {
+        control.setParticleCount(n);
+    }
+
+    /**
+     * @see Physics#setMatrixSize(int)
+     */
+    public void setMatrixSize(int newSize) {
+        control.setMatrixSize(newSize);
+    }
+
+    /**
+     * @see Physics#ensureTypes()
+     */
+    public void ensureTypes() {
+        control.ensureTypes();
+    }
+
+    public void generateMatrix() {
+        ParticleControl.generateMatrix(settings, matrixGenerator);
+    }
+
+    public void setPositions() {
+        control.setPositions();
+    }
+
+    public void setTypes() {
+        control.setTypes();
+    }
+
+    /**
+     * Gives {@link ParticleControl} access to the particle store.
+     */
+    private final class FloatStoreControl extends ParticleControl {
+
+        @Override
+        PhysicsSettings settings() {
+            return settings;
+        }
+
+        @Override
+        MatrixGenerator matrixGenerator() {
+            return matrixGenerator;
+        }
+
+        @Override
+        PositionSetter positionSetter() {
+            return positionSetter;
+        }
+
+        @Override
+        TypeSetter typeSetter() {
+            return typeSetter;
+        }
+
+        @Override
+        int size() {
+            return store.size();
+        }
+
+        @Override
+        void resize(int n) {
+            store.resize(n);
+        }
+
+        @Override
+        void resetIds() {
+            store.resetIds();
+        }
+
+        @Override
+        void swap(int i, int j) {
+            store.swap(i, j);
+        }
+
+        @Override
+        int getType(int i) {
+            return store.type[i];
+        }
+
+        @Override
+        void putType(int i, int type) {
+            store.type[i] = type;
+        }
+
+        @Override
+        void getPosition(int i, Vector3d dest) {
+            dest.set(store.x[i], store.y[i], 0);
+        }
+
+        @Override
+        void getVelocity(int i, Vector3d dest) {
+            dest.set(store.vx[i], store.vy[i], 0);
+        }
+
+        @Override
+        void putPosition(int i, Vector3d position) {
+            store.x[i] = ensurePosition((float) position.x);
+            store.y[i] = ensurePosition((float) position.y);
+            store.vx[i] = 0;
+            store.vy[i] = 0;
+        }
+    }
+}
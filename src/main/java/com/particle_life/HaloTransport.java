@@ -0,0 +1,35 @@
+package com.particle_life;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Carries messages between the {@link DomainWorker workers} of a {@link DomainDecomposition}.
+ * Each worker has its own endpoint.
+ * <p>Messages from one worker on the same channel must arrive in the order in which they were sent.
+ * A worker may send messages to itself.
+ *
+ * @see InProcessTransport
+ * @see TcpTransport
+ */
+public interface HaloTransport extends AutoCloseable {
+
+    /**
+     * Sends the remaining bytes of <code>message</code>. Must not block until the message is received.
+     * The buffer must not be modified afterwards.
+     *
+     * @param to      the receiving worker
+     * @param channel distinguishes different kinds of messages between the same two workers
+     */
+    void send(int to, int channel, ByteBuffer message) throws IOException;
+
+    /**
+     * Blocks until the next message from worker <code>from</code> on the given channel arrives.
+     *
+     * @return the message, positioned at its first byte
+     */
+    ByteBuffer receive(int from, int channel) throws IOException, InterruptedException;
+
+    @Override
+    void close() throws IOException;
+}
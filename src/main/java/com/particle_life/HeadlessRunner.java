@@ -0,0 +1,259 @@
+package com.particle_life;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Advances a {@link Physics} instance as fast as possible, without a window or wall-clock pacing
+ * (unlike {@link Loop}), and measures the throughput.
+ * <p>As a library:
+ * <pre>
+ * HeadlessRunner runner = new HeadlessRunner();
+ * runner.steps = 10000;
+ * runner.checkpoint = Path.of("soak.plck");
+ * HeadlessRunner.Report report = runner.run(physics);
+ * </pre>
+ * <p>From the command line, see {@link #main(String[])}.
+ * <p>The time step is fixed ({@link #dt}), so runs with the same initial state are reproducible.
+ * The number of pairs is counted with {@link Physics#collectMetrics} in every
+ * {@link #pairSampleInterval}-th step and extrapolated to all steps.
+ * For those steps, the latency is taken from {@link PhysicsMetrics#updateNanos},
+ * which doesn't include the time for counting.
+ */
+public class HeadlessRunner {
+
+    /**
+     * How many steps to run. Is ignored if {@link #durationMillis} is positive.
+     */
+    public int steps = 1000;
+    /**
+     * If this is positive, steps are run until this much time has passed (excluding the warm-up).
+     */
+    public long durationMillis = 0;
+    /**
+     * Steps that are run before measuring, e.g. to let the JIT compiler warm up.
+     */
+    public int warmupSteps = 0;
+    /**
+     * The time step that is written into {@link PhysicsSettings#dt} before running.
+     * If this is 0 or less, the settings are not changed.
+     */
+    public double dt = 0.02;
+    /**
+     * The pairs of particles are counted in every n-th step. 0 or less disables counting.
+     */
+    public int pairSampleInterval = 10;
+    /**
+     * If this is not <code>null</code>, a {@link Checkpoint} is saved here after the last step.
+     */
+    public Path checkpoint = null;
+
+    public static class Report {
+        public int particles;
+        public int threads;
+        /**
+         * Measured steps, without the warm-up.
+         */
+        public long steps;
+        /**
+         * Sum of the step latencies.
+         */
+        public long totalNanos;
+
+        public double stepsPerSecond;
+        /**
+         * Steps per second times the number of particles.
+         */
+        public double particleUpdatesPerSecond;
+        /**
+         * Pairs whose distance was computed per second, see {@link PhysicsMetrics#candidatePairs}.
+         * <code>NaN</code> if the pairs were not counted.
+         */
+        public double pairEvaluationsPerSecond = Double.NaN;
+        /**
+         * Pairs closer than rmax per second, see {@link PhysicsMetrics#acceptedPairs}.
+         * <code>NaN</code> if the pairs were not counted.
+         */
+        public double interactingPairsPerSecond = Double.NaN;
+
+        // latency of a single step
+        public long minNanos;
+        public long p50Nanos;
+        public long p90Nanos;
+        public long p99Nanos;
+        public long p999Nanos;
+        public long maxNanos;
+        public double meanNanos;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, """
+                            particles:              %d
+                            threads:                %d
+                            steps:                  %d
+                            time:                   %.3f s
+                            steps/s:                %.2f
+                            particle updates/s:     %.4g
+                            pair evaluations/s:     %.4g
+                            interacting pairs/s:    %.4g
+                            step latency (ms):      min %.3f, p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f, mean %.3f""",
+                    particles, threads, steps, totalNanos * 1e-9,
+                    stepsPerSecond, particleUpdatesPerSecond, pairEvaluationsPerSecond, interactingPairsPerSecond,
+                    minNanos * 1e-6, p50Nanos * 1e-6, p90Nanos * 1e-6, p99Nanos * 1e-6, p999Nanos * 1e-6,
+                    maxNanos * 1e-6, meanNanos * 1e-6);
+        }
+    }
+
+    /**
+     * Runs the warm-up and the measured steps on the calling thread.
+     *
+     * @return the measurements of the steps after the warm-up
+     * @throws IOException if the {@link #checkpoint} can't be written
+     */
+    public Report run(Physics physics) throws IOException {
+        if (dt > 0) {
+            physics.settings.dt = dt;
+        }
+        final boolean collectMetrics = physics.collectMetrics;
+
+        for (int step = 0; step < warmupSteps; step++) {
+            physics.update();
+        }
+
+        long[] latencies = new long[durationMillis > 0 ? 1024 : Math.max(0, steps)];
+        long count = 0;
+        long sampledSteps = 0;
+        long candidatePairs = 0;
+        long acceptedPairs = 0;
+
+        final long startTime = System.nanoTime();
+        final long endTime = startTime + durationMillis * 1_000_000;
+        while (durationMillis > 0 ? System.nanoTime() < endTime : count < steps) {
+            boolean sample = pairSampleInterval > 0 && count % pairSampleInterval == 0;
+            physics.collectMetrics = collectMetrics || sample;
+
+            long stepStart = System.nanoTime();
+            physics.update();
+            long latency = System.nanoTime() - stepStart;
+
+            if (sample) {
+                PhysicsMetrics metrics = physics.getMetrics();
+                latency = metrics.updateNanos;
+                candidatePairs += metrics.candidatePairs;
+                acceptedPairs += metrics.acceptedPairs;
+                sampledSteps++;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, 2 * latencies.length);
+            }
+            latencies[(int) count++] = latency;
+        }
+        physics.collectMetrics = collectMetrics;
+
+        long[] sorted = Arrays.copyOf(latencies, (int) count);
+        Arrays.sort(sorted);
+        long totalNanos = 0;
+        for (long latency : sorted) {
+            totalNanos += latency;
+        }
+
+        Report report = new Report();
+        report.particles = physics.getParticleCount();
+        report.threads = physics.preferredNumberOfThreads > 0 ? physics.preferredNumberOfThreads
+                : physics.getThreadAutotuner().getThreads();
+        report.steps = count;
+        report.totalNanos = totalNanos;
+        if (count > 0) {
+            double seconds = totalNanos * 1e-9;
+            report.stepsPerSecond = count / seconds;
+            report.particleUpdatesPerSecond = report.stepsPerSecond * report.particles;
+            if (sampledSteps > 0) {
+                report.pairEvaluationsPerSecond = report.stepsPerSecond * candidatePairs / sampledSteps;
+                report.interactingPairsPerSecond = report.stepsPerSecond * acceptedPairs / sampledSteps;
+            }
+            report.minNanos = sorted[0];
+            report.p50Nanos = percentile(sorted, 0.5);
+            report.p90Nanos = percentile(sorted, 0.9);
+            report.p99Nanos = percentile(sorted, 0.99);
+            report.p999Nanos = percentile(sorted, 0.999);
+            report.maxNanos = sorted[sorted.length - 1];
+            report.meanNanos = totalNanos / (double) count;
+        }
+
+        if (checkpoint != null) {
+            Checkpoint.save(physics, checkpoint);
+        }
+        return report;
+    }
+
+    /**
+     * @return the smallest value that is greater than or equal to the fraction <code>p</code> of the values
+     */
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Runs a simulation with the {@link ParticleLifeAccelerator} and prints the {@link Report}.
+     * <p>Options (all optional):
+     * <pre>
+     * --particles=N       number of particles (default 10000)
+     * --steps=N           number of measured steps (default 1000)
+     * --duration=SECONDS  run for a fixed time instead of a fixed number of steps
+     * --warmup=N          steps before measuring (default 100)
+     * --dt=SECONDS        fixed time step (default 0.02)
+     * --rmax=R            interaction radius (default 0.02)
+     * --threads=N         {@link Physics#preferredNumberOfThreads}, 0 for automatic (default 12)
+     * --objects           store the particles as objects instead of arrays
+     * --load=FILE         start from a checkpoint (overrides --particles and --rmax)
+     * --checkpoint=FILE   save a checkpoint after the last step
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        HeadlessRunner runner = new HeadlessRunner();
+        runner.warmupSteps = 100;
+        int particles = 10000;
+        double rmax = 0.02;
+        int threads = 12;
+        boolean arrayStorage = true;
+        Path load = null;
+
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            String value = option.length > 1 ? option[1] : "";
+            switch (option[0]) {
+                case "--particles" -> particles = Integer.parseInt(value);
+                case "--steps" -> runner.steps = Integer.parseInt(value);
+                case "--duration" -> runner.durationMillis = Math.round(Double.parseDouble(value) * 1000);
+                case "--warmup" -> runner.warmupSteps = Integer.parseInt(value);
+                case "--dt" -> runner.dt = Double.parseDouble(value);
+                case "--rmax" -> rmax = Double.parseDouble(value);
+                case "--threads" -> threads = Integer.parseInt(value);
+                case "--objects" -> arrayStorage = false;
+                case "--load" -> load = Path.of(value);
+                case "--checkpoint" -> runner.checkpoint = Path.of(value);
+                default -> {
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+                }
+            }
+        }
+
+        Physics physics = new Physics(new ParticleLifeAccelerator());
+        physics.preferredNumberOfThreads = threads;
+        physics.setArrayStorage(arrayStorage);
+        if (load != null) {
+            Checkpoint.load(physics, load);
+        } else {
+            physics.settings.rmax = rmax;
+            physics.setParticleCount(particles);
+        }
+
+        Report report = runner.run(physics);
+        System.out.println(report);
+        physics.shutdown(1000);
+    }
+}
@@ -0,0 +1,55 @@
+package com.particle_life;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Passes messages between workers in the same JVM through queues, without copying them.
+ */
+public class InProcessTransport implements HaloTransport {
+
+    private record Key(int from, int to, int channel) {
+    }
+
+    private final int self;
+    private final ConcurrentHashMap<Key, BlockingQueue<ByteBuffer>> queues;
+
+    private InProcessTransport(int self, ConcurrentHashMap<Key, BlockingQueue<ByteBuffer>> queues) {
+        this.self = self;
+        this.queues = queues;
+    }
+
+    /**
+     * @return connected endpoints for the workers <code>0 ... workers - 1</code>
+     */
+    public static InProcessTransport[] create(int workers) {
+        ConcurrentHashMap<Key, BlockingQueue<ByteBuffer>> queues = new ConcurrentHashMap<>();
+        InProcessTransport[] transports = new InProcessTransport[workers];
+        for (int k = 0; k < workers; k++) {
+            transports[k] = new InProcessTransport(k, queues);
+        }
+        return transports;
+    }
+
+    private BlockingQueue<ByteBuffer> queue(int from, int to, int channel) {
+        return queues.computeIfAbsent(new Key(from, to, channel), key -> new LinkedBlockingQueue<>());
+    }
+
+    @Override
+    public void send(int to, int channel, ByteBuffer message) {
+        queue(self, to, channel).add(message.slice());
+    }
+
+    @Override
+    public ByteBuffer receive(int from, int channel) throws InterruptedException {
+        return queue(from, self, channel).take();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // nothing to release
+    }
+}
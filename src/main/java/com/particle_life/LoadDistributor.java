@@ -1,11 +1,80 @@
 package com.particle_life;
 
-import java.util.LinkedList;
-import java.util.concurrent.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Distributes work on a persistent, fixed-size {@link ForkJoinPool}.
+ * <p>The load is cut into many small chunks, which the threads then take one after another.
+ * That way, threads that finish their chunks early help with the remaining chunks
+ * instead of waiting idly until the slowest thread has finished.
+ * <p>The pool is created once with {@link #getMaxThreads()} threads.
+ * Fewer threads are used for a load by starting fewer workers on it, the pool itself is never resized.
+ */
 public class LoadDistributor {
 
-    private final ExecutorService threadPool = Executors.newCachedThreadPool();
+    /**
+     * Into how many chunks the load is cut per thread.
+     * More chunks balance the load better if the work per index is uneven,
+     * fewer chunks have less scheduling overhead.
+     */
+    public int chunksPerThread = 8;
+
+    /**
+     * Sums up how long each thread spends processing chunks, see {@link #measureBusyTime(BusyTime, Runnable)}.
+     */
+    public static class BusyTime {
+
+        private final ConcurrentHashMap<Thread, LongAdder> busyNanos = new ConcurrentHashMap<>();
+
+        private void add(long nanos) {
+            busyNanos.computeIfAbsent(Thread.currentThread(), thread -> new LongAdder()).add(nanos);
+        }
+
+        /**
+         * @return for each thread name, how many nanoseconds the thread spent processing chunks
+         */
+        public Map<String, Long> getBusyNanos() {
+            Map<String, Long> result = new HashMap<>();
+            busyNanos.forEach((thread, nanos) -> result.merge(thread.getName(), nanos.sum(), Long::sum));
+            return result;
+        }
+    }
+
+    /**
+     * Where the time of the loads that the current thread distributes is summed up, or <code>null</code>.
+     * This is per thread (and not a flag of the distributor), so that callers that share
+     * this distributor concurrently (e.g. the simulations of a {@link SimulationBatch})
+     * only measure their own loads.
+     */
+    private final ThreadLocal<BusyTime> busyTime = new ThreadLocal<>();
+
+    private final int maxThreads;
+    /**
+     * Is created lazily and then kept until {@link #shutdown(long)}.
+     */
+    private ForkJoinPool threadPool = null;
+    private boolean isShutdown = false;
+
+    /**
+     * Uses at most one thread per available processor.
+     */
+    public LoadDistributor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxThreads the size of the thread pool, i.e. how many threads are used at most
+     */
+    public LoadDistributor(int maxThreads) {
+        this.maxThreads = Math.max(1, maxThreads);
+    }
 
     public interface IndexProcessor {
         /**
@@ -16,53 +85,176 @@ public class LoadDistributor {
         boolean process(int i);
     }
 
-    private record BatchProcessor(int start, int stop, IndexProcessor indexProcessor) implements Runnable {
+    /**
+     * Runs <code>workers</code> workers that take the chunks one after another until none are left,
+     * so that at most <code>workers</code> threads process the load at once.
+     * The workers are forked by splitting recursively.
+     * <p>If <code>chunkBounds</code> is <code>null</code>, the indices <code>0 ... loadSize - 1</code>
+     * are cut into <code>nChunks</code> chunks of equal size.
+     */
+    private static class ChunkProcessor extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LoadDistributor loadDistributor;
+        private final BusyTime busyTime;
+        private final int[] chunkBounds;
+        private final int loadSize;
+        private final int nChunks;
+        private final AtomicInteger nextChunk;
+        private final int workers;
+        private final IndexProcessor indexProcessor;
+
+        ChunkProcessor(LoadDistributor loadDistributor, BusyTime busyTime, int[] chunkBounds, int loadSize, int nChunks, AtomicInteger nextChunk, int workers, IndexProcessor indexProcessor) {
+            this.loadDistributor = loadDistributor;
+            this.busyTime = busyTime;
+            this.chunkBounds = chunkBounds;
+            this.loadSize = loadSize;
+            this.nChunks = nChunks;
+            this.nextChunk = nextChunk;
+            this.workers = workers;
+            this.indexProcessor = indexProcessor;
+        }
 
         @Override
-        public void run() {
-            for (int i = start; i < stop; i++) {
-                if (!indexProcessor.process(i)) {
-                    break;
+        protected void compute() {
+            if (workers > 1) {
+                int half = workers >>> 1;
+                invokeAll(
+                        new ChunkProcessor(loadDistributor, busyTime, chunkBounds, loadSize, nChunks, nextChunk, half, indexProcessor),
+                        new ChunkProcessor(loadDistributor, busyTime, chunkBounds, loadSize, nChunks, nextChunk, workers - half, indexProcessor)
+                );
+            } else {
+                // a pool thread that waits in a nested load may steal a task of another caller,
+                // so the busy time of the caller that distributed this load is set for the duration
+                BusyTime previous = loadDistributor.busyTime.get();
+                loadDistributor.busyTime.set(busyTime);
+                try {
+                    int c;
+                    while ((c = nextChunk.getAndIncrement()) < nChunks) {
+                        processRange(chunkStart(c), chunkStart(c + 1), indexProcessor, busyTime);
+                    }
+                } finally {
+                    loadDistributor.busyTime.set(previous);
                 }
             }
         }
+
+        private int chunkStart(int c) {
+            if (chunkBounds != null) return chunkBounds[c];
+            return (int) ((long) loadSize * c / nChunks);
+        }
+    }
+
+    private static void processRange(int start, int stop, IndexProcessor indexProcessor, BusyTime busyTime) {
+        if (busyTime == null) {
+            processIndices(start, stop, indexProcessor);
+            return;
+        }
+        long startTime = System.nanoTime();
+        processIndices(start, stop, indexProcessor);
+        busyTime.add(System.nanoTime() - startTime);
+    }
+
+    private static void processIndices(int start, int stop, IndexProcessor indexProcessor) {
+        for (int i = start; i < stop; i++) {
+            if (!indexProcessor.process(i)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Runs <code>action</code> on the current thread and adds the time that the threads spend
+     * processing chunks of the loads that it distributes to <code>busyTime</code>.
+     * Loads that other threads distribute at the same time are not counted.
+     */
+    public void measureBusyTime(BusyTime busyTime, Runnable action) {
+        BusyTime previous = this.busyTime.get();
+        this.busyTime.set(busyTime);
+        try {
+            action.run();
+        } finally {
+            this.busyTime.set(previous);
+        }
     }
 
     /**
      *
      * @param loadSize                 the number of indices that must be processed
-     * @param preferredNumberOfThreads on how many threads the load should be distributed
+     * @param preferredNumberOfThreads on how many threads the load should be distributed,
+     *                                 at most {@link #getMaxThreads()} are used
      * @param indexProcessor           callback that will be invoked on each index in 0 ... loadSize - 1
      */
     public void distributeLoadEvenly(int loadSize, int preferredNumberOfThreads, IndexProcessor indexProcessor) {
 
         if (loadSize <= 0) return;
 
-        LinkedList<Future<?>> futures = new LinkedList<>();  // needed later for waiting for all threads to finish
-        int length = (int) Math.ceil(loadSize / (double) preferredNumberOfThreads);
-
-        int start = 0;
-        int stop = start + length;
-        while (stop <= loadSize) {
-            Future<?> future = threadPool.submit(new BatchProcessor(start, stop, indexProcessor));
-            futures.add(future);
-            // move interval by length
-            start += length;
-            stop += length;
+        int threads = Math.max(1, Math.min(preferredNumberOfThreads, maxThreads));
+        int nChunks = Math.min(loadSize, threads * Math.max(1, chunksPerThread));
+        int workers = Math.min(threads, nChunks);
+        if (workers <= 1) {
+            processRange(0, loadSize, indexProcessor, busyTime.get());
+            return;
         }
-        if (start < loadSize) {
-            Future<?> future = threadPool.submit(new BatchProcessor(start, loadSize, indexProcessor));
-            futures.add(future);
+
+        // the workers compute the chunk bounds themselves, so no array is allocated per call
+        invoke(null, loadSize, nChunks, workers, indexProcessor);
+    }
+
+    /**
+     * Processes chunks of arbitrary sizes.
+     * Use this instead of {@link #distributeLoadEvenly(int, int, IndexProcessor)}
+     * if the work per index is known to be uneven:
+     * chunks with more work per index should then contain fewer indices.
+     *
+     * @param chunkBounds              chunk <code>c</code> contains the indices
+     *                                 <code>chunkBounds[c] ... chunkBounds[c + 1] - 1</code>.
+     *                                 Must be non-decreasing.
+     * @param nChunks                  the number of chunks, <code>chunkBounds</code> must have
+     *                                 at least <code>nChunks + 1</code> entries
+     * @param preferredNumberOfThreads on how many threads the load should be distributed,
+     *                                 at most {@link #getMaxThreads()} and <code>nChunks</code> are used
+     * @param indexProcessor           callback that will be invoked on each index
+     *                                 in <code>chunkBounds[0] ... chunkBounds[nChunks] - 1</code>
+     */
+    public void distributeLoad(int[] chunkBounds, int nChunks, int preferredNumberOfThreads, IndexProcessor indexProcessor) {
+
+        if (nChunks <= 0) return;
+
+        int workers = Math.min(Math.min(preferredNumberOfThreads, maxThreads), nChunks);
+        if (workers <= 1) {
+            processRange(chunkBounds[0], chunkBounds[nChunks], indexProcessor, busyTime.get());
+            return;
         }
 
-        // wait for all threads to finish
-        for (Future<?> future : futures) {
-            try {
-                future.get();
-            } catch (InterruptedException | ExecutionException e) {
-                throw new RuntimeException(e);
-            }
+        invoke(chunkBounds, 0, nChunks, workers, indexProcessor);
+    }
+
+    private void invoke(int[] chunkBounds, int loadSize, int nChunks, int workers, IndexProcessor indexProcessor) {
+        getThreadPool().invoke(new ChunkProcessor(this, busyTime.get(), chunkBounds, loadSize, nChunks, new AtomicInteger(), workers, indexProcessor));
+    }
+
+    /**
+     * @return the size of the thread pool, i.e. how many threads are used at most
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    private synchronized ForkJoinPool getThreadPool() {
+        if (isShutdown) {
+            throw new IllegalStateException("LoadDistributor was shut down.");
         }
+        if (threadPool == null) {
+            // core pool size = max pool size = maxThreads:
+            // the threads are kept alive and no compensation threads are spawned.
+            // A thread that waits for a forked worker then helps with it
+            // instead of the pool rejecting the task (saturate returns true).
+            threadPool = new ForkJoinPool(maxThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                    null, false, maxThreads, maxThreads, 1, pool -> true, 60, TimeUnit.SECONDS);
+        }
+        return threadPool;
     }
 
     /**
@@ -73,7 +265,13 @@ public class LoadDistributor {
      * @return {@code true} if all tasks terminated and {@code false} if the timeout elapsed before termination
      */
     public boolean shutdown(long timeoutMilliseconds) throws InterruptedException {
-        threadPool.shutdown();
-        return threadPool.awaitTermination(timeoutMilliseconds, TimeUnit.MILLISECONDS);
+        ForkJoinPool pool;
+        synchronized (this) {
+            isShutdown = true;
+            pool = threadPool;
+        }
+        if (pool == null) return true;
+        pool.shutdown();
+        return pool.awaitTermination(timeoutMilliseconds, TimeUnit.MILLISECONDS);
     }
 }
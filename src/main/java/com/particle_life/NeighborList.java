@@ -0,0 +1,109 @@
+package com.particle_life;
+
+/**
+ * Verlet neighbor lists, see {@link Physics#neighborListSkin}.
+ * <p>For each particle, the list contains the indices of all particles that were
+ * within <code>rmax + skin</code> when the list was built.
+ * As long as no particle has moved further than <code>skin / 2</code> since then,
+ * no pair of particles can have come closer than <code>rmax</code> without being in the list,
+ * so the list can be re-used instead of searching the containers again.
+ * <p>Use the statistics of this class to tune the skin:
+ * a larger skin makes rebuilds less frequent, but the lists longer.
+ */
+public class NeighborList {
+
+    /**
+     * The neighbors of particle <code>i</code> are
+     * <code>neighbors[offsets[i]] ... neighbors[offsets[i + 1] - 1]</code>.
+     */
+    int[] offsets = new int[1];
+    int[] neighbors = new int[0];
+
+    /**
+     * Positions of the particles when the list was built.
+     */
+    double[] x0 = new double[0];
+    double[] y0 = new double[0];
+
+    /**
+     * The list is only valid for the same particle store.
+     */
+    ParticleStore store = null;
+    int size = 0;
+    double rmax;
+    double skin;
+    boolean wrap;
+    boolean valid = false;
+
+    // statistics:
+    private long steps = 0;
+    private long builds = 0;
+    private long neighborsAtLastBuild = 0;
+    private long neighborsWithinRmaxAtLastBuild = 0;
+
+    NeighborList() {
+    }
+
+    void invalidate() {
+        valid = false;
+    }
+
+    void countStep() {
+        steps++;
+    }
+
+    void countBuild(long neighborsWithinRmax) {
+        builds++;
+        neighborsAtLastBuild = offsets[size];
+        neighborsWithinRmaxAtLastBuild = neighborsWithinRmax;
+    }
+
+    /**
+     * @return the number of update steps that used neighbor lists since the last reset
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return how often the lists were built since the last reset
+     */
+    public long getBuilds() {
+        return builds;
+    }
+
+    /**
+     * @return the fraction of update steps that had to rebuild the lists, between 0 and 1
+     */
+    public double getRebuildFrequency() {
+        return steps == 0 ? 0 : builds / (double) steps;
+    }
+
+    /**
+     * @return the fraction of update steps that could re-use the lists, between 0 and 1
+     */
+    public double getReuseRate() {
+        return steps == 0 ? 0 : 1 - getRebuildFrequency();
+    }
+
+    /**
+     * @return the fraction of listed neighbors that were within <code>rmax</code>
+     * when the lists were last built, between 0 and 1.
+     * The remaining neighbors are only in the list because of the skin.
+     */
+    public double getHitRate() {
+        return neighborsAtLastBuild == 0 ? 0 : neighborsWithinRmaxAtLastBuild / (double) neighborsAtLastBuild;
+    }
+
+    /**
+     * @return the average number of neighbors per particle when the lists were last built
+     */
+    public double getAverageNeighbors() {
+        return size == 0 ? 0 : neighborsAtLastBuild / (double) size;
+    }
+
+    public void resetStatistics() {
+        steps = 0;
+        builds = 0;
+    }
+}
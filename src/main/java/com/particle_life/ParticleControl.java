@@ -0,0 +1,179 @@
+package com.particle_life;
+
+import org.joml.Vector3d;
+
+import java.util.Random;
+
+/**
+ * Creates particles, places them and assigns their types, independent of the precision
+ * and the memory that the particles are stored in.
+ * <p>{@link Physics} (with array storage), {@link FloatPhysics} and the off-heap simulation
+ * each implement the access to their particles and delegate their control methods
+ * (e.g. {@link Physics#setParticleCount(int)} or {@link Physics#setMatrixSize(int)}) to this class,
+ * so that they all treat the particles the same way.
+ */
+abstract class ParticleControl {
+
+    static final int DEFAULT_MATRIX_SIZE = 7;
+
+    private final Random random = new Random();
+
+    abstract PhysicsSettings settings();
+
+    abstract MatrixGenerator matrixGenerator();
+
+    abstract PositionSetter positionSetter();
+
+    abstract TypeSetter typeSetter();
+
+    abstract int size();
+
+    /**
+     * Changes the number of particles.
+     * The first <code>min(n, size())</code> particles are kept.
+     */
+    abstract void resize(int n);
+
+    /**
+     * Numbers the particles from 0 to <code>size() - 1</code> in their current order.
+     */
+    abstract void resetIds();
+
+    abstract void swap(int i, int j);
+
+    abstract int getType(int i);
+
+    abstract void putType(int i, int type);
+
+    abstract void getPosition(int i, Vector3d dest);
+
+    abstract void getVelocity(int i, Vector3d dest);
+
+    /**
+     * Moves particle <code>i</code> to <code>position</code>, wrapped or clamped into the world,
+     * and stops it.
+     */
+    abstract void putPosition(int i, Vector3d position);
+
+    /**
+     * @see Physics#setParticleCount(int)
+     */
+    final void setParticleCount(int n) {
+        int prevCount = size();
+        if (n == prevCount) return;
+
+        if (n < prevCount) {
+            // randomly shuffle particles first
+            // (otherwise, the container layout becomes visible)
+            shuffle();
+        }
+
+        resize(n);  // keeps as many of the previous particles as possible
+
+        for (int i = prevCount; i < n; i++) {
+            generateParticle(i);
+        }
+        resetIds();
+    }
+
+    /**
+     * Use this to avoid the container pattern showing
+     * (i.e. if particles are treated differently depending on their position in the array).
+     */
+    final void shuffle() {
+        for (int i = size() - 1; i > 0; i--) {
+            swap(i, random.nextInt(i + 1));
+        }
+    }
+
+    /**
+     * Sets the type of particle <code>i</code> using the type setter,
+     * then its position using the position setter (in that order).
+     */
+    final void generateParticle(int i) {
+        putType(i, 0);
+        setType(i);
+        setPosition(i);
+    }
+
+    /**
+     * @see Physics#setMatrixSize(int)
+     */
+    final void setMatrixSize(int newSize) {
+        if (changeMatrixSize(settings(), matrixGenerator(), newSize)) {
+            ensureTypes(); // need to change types of particles that are not in the new matrix
+        }
+    }
+
+    /**
+     * Replaces the matrix with a matrix of the new size, keeping as many of the previous values as possible.
+     *
+     * @return whether the matrix became smaller, so that the types of the particles must be checked
+     */
+    static boolean changeMatrixSize(PhysicsSettings settings, MatrixGenerator matrixGenerator, int newSize) {
+        Matrix prevMatrix = settings.matrix;
+        int prevSize = prevMatrix.size();
+        if (newSize == prevSize) return false;  // keep previous matrix
+
+        settings.matrix = matrixGenerator.makeMatrix(newSize);
+
+        assert settings.matrix.size() == newSize;
+
+        // copy as much as possible from previous matrix
+        int commonSize = Math.min(prevSize, newSize);
+        for (int i = 0; i < commonSize; i++) {
+            for (int j = 0; j < commonSize; j++) {
+                settings.matrix.set(i, j, prevMatrix.get(i, j));
+            }
+        }
+
+        return newSize < prevSize;
+    }
+
+    static void generateMatrix(PhysicsSettings settings, MatrixGenerator matrixGenerator) {
+
+        int prevSize = settings.matrix != null ? settings.matrix.size() : DEFAULT_MATRIX_SIZE;
+        settings.matrix = matrixGenerator.makeMatrix(prevSize);
+
+        assert settings.matrix.size() == prevSize : "Matrix size should only change via setMatrixSize()";
+    }
+
+    /**
+     * @see Physics#ensureTypes()
+     */
+    final void ensureTypes() {
+        int matrixSize = settings().matrix.size();
+        for (int i = 0; i < size(); i++) {
+            if (getType(i) >= matrixSize) {
+                setType(i);
+            }
+        }
+    }
+
+    final void setPositions() {
+        for (int i = 0; i < size(); i++) {
+            setPosition(i);
+        }
+    }
+
+    final void setTypes() {
+        for (int i = 0; i < size(); i++) {
+            setType(i);
+        }
+    }
+
+    final void setPosition(int i) {
+        Vector3d position = new Vector3d();
+        getPosition(i, position);
+        positionSetter().set(position, getType(i), settings().matrix.size());
+        putPosition(i, position);
+    }
+
+    final void setType(int i) {
+        Vector3d position = new Vector3d();
+        Vector3d velocity = new Vector3d();
+        getPosition(i, position);
+        getVelocity(i, velocity);
+        putType(i, typeSetter().getType(position, velocity, getType(i), settings().matrix.size()));
+    }
+}
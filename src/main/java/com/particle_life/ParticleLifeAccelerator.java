@@ -0,0 +1,49 @@
+package com.particle_life;
+
+/**
+ * The force shape of Particle Life:
+ * particles repel each other at distances below <code>beta * rmax</code>,
+ * and attract or repel each other according to the matrix entry up to <code>rmax</code>.
+ * <p>If the SIMD force kernel is available, {@link Physics} computes this force shape
+ * for several neighbors at once, see {@link Physics#useVectorKernel}.
+ */
+public class ParticleLifeAccelerator implements RadialAccelerator, FloatAccelerator {
+
+    /**
+     * Relative distance at which the universal repulsion ends, must be in (0, 1).
+     */
+    public double beta = 0.3;
+
+    /**
+     * @param a matrix entry
+     * @param r distance divided by rmax, in [0, 1]
+     * @param beta see {@link #beta}
+     * @return the magnitude of the force, where positive values mean attraction
+     */
+    public static double force(double a, double r, double beta) {
+        if (r < beta) {
+            return r / beta - 1;
+        } else if (beta < r && r < 1) {
+            return a * (1 - Math.abs(1 + beta - 2 * r) / (1 - beta));
+        } else {
+            return 0;
+        }
+    }
+
+    @Override
+    public double force(double a, double r) {
+        return force(a, r, beta);
+    }
+
+    @Override
+    public float force(float a, float r) {
+        final float beta = (float) this.beta;
+        if (r < beta) {
+            return r / beta - 1;
+        } else if (beta < r && r < 1) {
+            return a * (1 - Math.abs(1 + beta - 2 * r) / (1 - beta));
+        } else {
+            return 0;
+        }
+    }
+}
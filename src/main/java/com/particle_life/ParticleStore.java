@@ -0,0 +1,202 @@
+package com.particle_life;
+
+import java.util.Arrays;
+
+/**
+ * Stores particles as a structure of primitive arrays
+ * instead of an array of {@link Particle} objects.<br>
+ * The particle with index <code>i</code> is made up of
+ * <code>x[i], y[i], z[i]</code> (position),
+ * <code>vx[i], vy[i], vz[i]</code> (velocity)
+ * and <code>type[i]</code>.
+ * All arrays always have the same length, which is the number of particles.
+ * <p>As {@link Physics} changes the order of the particles in each update,
+ * <code>id[i]</code> identifies the particle at index <code>i</code> across updates.
+ * <p>
+ * Use {@link #get(int, Particle)} and {@link #set(int, Particle)}
+ * to convert between this representation and {@link Particle} objects.
+ *
+ * @see Physics#setArrayStorage(boolean)
+ */
+public class ParticleStore {
+
+    public double[] x;
+    public double[] y;
+    public double[] z;
+    public double[] vx;
+    public double[] vy;
+    public double[] vz;
+    public int[] type;
+    /**
+     * {@link Physics} numbers the particles from 0 to n - 1 whenever particles are added or removed,
+     * see {@link Physics#getParticleSetVersion()}.
+     */
+    public int[] id;
+
+    public ParticleStore(int size) {
+        x = new double[size];
+        y = new double[size];
+        z = new double[size];
+        vx = new double[size];
+        vy = new double[size];
+        vz = new double[size];
+        type = new int[size];
+        id = new int[size];
+        resetIds();
+    }
+
+    /**
+     * Creates a new store containing copies of the given particles.
+     */
+    public static ParticleStore of(Particle[] particles) {
+        ParticleStore store = new ParticleStore(particles.length);
+        for (int i = 0; i < particles.length; i++) {
+            store.set(i, particles[i]);
+        }
+        return store;
+    }
+
+    /**
+     * @return the number of particles in this store
+     */
+    public int size() {
+        return type.length;
+    }
+
+    /**
+     * Changes the number of particles.
+     * The first <code>min(n, size())</code> particles are kept,
+     * new particles are initialized with zeros.
+     *
+     * @param n the new number of particles
+     */
+    public void resize(int n) {
+        if (n == size()) return;
+        x = Arrays.copyOf(x, n);
+        y = Arrays.copyOf(y, n);
+        z = Arrays.copyOf(z, n);
+        vx = Arrays.copyOf(vx, n);
+        vy = Arrays.copyOf(vy, n);
+        vz = Arrays.copyOf(vz, n);
+        type = Arrays.copyOf(type, n);
+        id = Arrays.copyOf(id, n);
+    }
+
+    /**
+     * Numbers the particles from 0 to <code>size() - 1</code> in their current order.
+     */
+    public void resetIds() {
+        for (int i = 0; i < id.length; i++) {
+            id[i] = i;
+        }
+    }
+
+    /**
+     * Copies the particle at index <code>i</code> into <code>dest</code>.
+     *
+     * @return <code>dest</code>
+     */
+    public Particle get(int i, Particle dest) {
+        dest.position.set(x[i], y[i], z[i]);
+        dest.velocity.set(vx[i], vy[i], vz[i]);
+        dest.type = type[i];
+        return dest;
+    }
+
+    /**
+     * @return a new particle that is a copy of the particle at index <code>i</code>
+     */
+    public Particle get(int i) {
+        return get(i, new Particle());
+    }
+
+    /**
+     * Overwrites the particle at index <code>i</code> with the values of <code>p</code>.
+     */
+    public void set(int i, Particle p) {
+        x[i] = p.position.x;
+        y[i] = p.position.y;
+        z[i] = p.position.z;
+        vx[i] = p.velocity.x;
+        vy[i] = p.velocity.y;
+        vz[i] = p.velocity.z;
+        type[i] = p.type;
+    }
+
+    /**
+     * Copies all particles into <code>dest</code>,
+     * re-using its {@link Particle} objects where possible.
+     *
+     * @param dest may be <code>null</code>
+     * @return <code>dest</code> if it has the right length, otherwise a new array
+     */
+    public Particle[] toParticles(Particle[] dest) {
+        int n = size();
+        if (dest == null || dest.length != n) {
+            Particle[] newDest = new Particle[n];
+            if (dest != null) {
+                System.arraycopy(dest, 0, newDest, 0, Math.min(dest.length, n));
+            }
+            dest = newDest;
+        }
+        for (int i = 0; i < n; i++) {
+            if (dest[i] == null) dest[i] = new Particle();
+            get(i, dest[i]);
+        }
+        return dest;
+    }
+
+    /**
+     * Copies the particle at index <code>i</code> to index <code>j</code> of <code>dest</code>.
+     */
+    void copy(int i, ParticleStore dest, int j) {
+        dest.x[j] = x[i];
+        dest.y[j] = y[i];
+        dest.z[j] = z[i];
+        dest.vx[j] = vx[i];
+        dest.vy[j] = vy[i];
+        dest.vz[j] = vz[i];
+        dest.type[j] = type[i];
+        dest.id[j] = id[i];
+    }
+
+    /**
+     * Copies the particles <code>i ... i + length - 1</code> to <code>j ... j + length - 1</code> of <code>dest</code>.
+     */
+    void copyRange(int i, ParticleStore dest, int j, int length) {
+        System.arraycopy(x, i, dest.x, j, length);
+        System.arraycopy(y, i, dest.y, j, length);
+        System.arraycopy(z, i, dest.z, j, length);
+        System.arraycopy(vx, i, dest.vx, j, length);
+        System.arraycopy(vy, i, dest.vy, j, length);
+        System.arraycopy(vz, i, dest.vz, j, length);
+        System.arraycopy(type, i, dest.type, j, length);
+        System.arraycopy(id, i, dest.id, j, length);
+    }
+
+    void swap(int i, int j) {
+        double h;
+        h = x[i]; x[i] = x[j]; x[j] = h;
+        h = y[i]; y[i] = y[j]; y[j] = h;
+        h = z[i]; z[i] = z[j]; z[j] = h;
+        h = vx[i]; vx[i] = vx[j]; vx[j] = h;
+        h = vy[i]; vy[i] = vy[j]; vy[j] = h;
+        h = vz[i]; vz[i] = vz[j]; vz[j] = h;
+        int t = type[i]; type[i] = type[j]; type[j] = t;
+        t = id[i]; id[i] = id[j]; id[j] = t;
+    }
+
+    /**
+     * Exchanges the positions and velocities (but not the types and ids) with another store of the same size.
+     * Only the array references are swapped.
+     */
+    void swapMotion(ParticleStore other) {
+        double[] h;
+        h = x; x = other.x; other.x = h;
+        h = y; y = other.y; other.y = h;
+        h = z; z = other.z; other.z = h;
+        h = vx; vx = other.vx; other.vx = h;
+        h = vy; vy = other.vy; other.vy = h;
+        h = vz; vz = other.vz; other.vz = h;
+    }
+}
@@ -1,19 +1,41 @@
 package com.particle_life;
 
+import jdk.jfr.EventType;
 import org.joml.Vector3d;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Physics {
 
-    private static final int DEFAULT_MATRIX_SIZE = 7;
-
     public PhysicsSettings settings = new PhysicsSettings();
 
+    /**
+     * The particles that are simulated.
+     * <p>If {@link #isArrayStorage() array storage} is enabled,
+     * this array is only a view of the {@link #getParticleStore() particle store}
+     * and is not updated automatically.
+     * Call {@link #syncParticles()} to refresh it and {@link #applyParticles()}
+     * to write changes made to it back into the store.
+     */
     public Particle[] particles;
 
+    /**
+     * Only used if array storage is enabled, otherwise <code>null</code>.
+     */
+    private ParticleStore store = null;
+    private ParticleStore storeBuffer = null;
+    /**
+     * Receives the new positions and velocities in a {@link #fusedUpdate fused update}.
+     * Its types and ids are not used.
+     */
+    private ParticleStore motionBuffer = null;
+    private final ParticleControl storeControl = new StoreControl();
+
     // buffers for sorting by containers:
     private int[] containers;
     private int[][] containerNeighborhood;
@@ -22,9 +44,178 @@ public class Physics {
     // container layout:
     private int nx;
     private int ny;
-    private double containerSize = 0.065;//todo: implement makeContainerNeighborhood() to make this independent of rmax
+    /**
+     * The order of the containers in memory.
+     * {@link ContainerLayout#MORTON} improves the cache locality of the velocity update for large numbers of particles.
+     */
+    public ContainerLayout containerLayout = ContainerLayout.ROW_MAJOR;
+    /**
+     * Container (cx, cy) has the index <code>containerIndicesX[cx] + containerIndicesY[cy]</code>.
+     */
+    private int[] containerIndicesX = new int[0];
+    private int[] containerIndicesY = new int[0];
+    private ContainerLayout preparedContainerLayout = null;
+    /**
+     * Requested edge length of the containers.
+     * The actual containers are slightly larger, as their edge length is <code>1 / nx</code>.
+     */
+    private double containerSize = 0.065;
+    /**
+     * The subdivision that {@link #containerNeighborhood} was made for.
+     */
+    private int neighborhoodSubdivision = -1;
+    private double neighborhoodRadius = -1;
+    private boolean neighborhoodWrap;
+
+    /**
+     * Into how many containers the interaction radius <code>rmax</code> is divided along each axis.
+     * <p>With a value of 1, the containers have the size of <code>rmax</code> and each particle
+     * checks the 3x3 containers around it.
+     * Larger values make the containers smaller, so that the checked area fits the circle of
+     * radius <code>rmax</code> more tightly and fewer particles outside of <code>rmax</code> are checked,
+     * at the cost of visiting more containers (e.g. 5x5 for a value of 2).
+     * Containers that lie completely outside of <code>rmax</code> are not checked.
+     * <p>A value of 0 or less chooses the subdivision automatically, based on the particle density.
+     */
+    public int containerSubdivision = 1;
+    private static final int MAX_CONTAINER_SUBDIVISION = 4;
+    /**
+     * Estimated cost of visiting a container, relative to checking a single particle.
+     * Used to choose the container subdivision automatically.
+     */
+    private static final double CONTAINER_VISIT_COST = 8.0;
 
+    /**
+     * If this is <code>true</code>, each pair of particles within <code>rmax</code> is only looked at once
+     * during the velocity update, and both particles are accelerated at the same time.
+     * This roughly halves the number of distance calculations.
+     * <p>Only has an effect if {@link #isArrayStorage() array storage} is enabled
+     * and if there are enough containers (at least twice as many rows as the container neighborhood
+     * is high, and if the world wraps around, enough containers so that no container is reached
+     * via two opposite offsets). Otherwise, each pair is looked at twice as usual.
+     * <p>Note that the velocities are summed up in a different order than usual,
+     * so the results can differ by rounding errors.
+     */
+    public boolean symmetricPairs = false;
+    /**
+     * If this is greater than 0, Verlet neighbor lists are used:
+     * for each particle, all particles within <code>rmax + neighborListSkin</code> are listed,
+     * and the lists are re-used in the following updates until a particle has moved further than
+     * <code>neighborListSkin / 2</code>.
+     * While the lists are re-used, the particles are not sorted into containers
+     * and only the listed particles are checked.
+     * <p>This pays off if the particles move slowly, e.g. with high friction.
+     * Use the statistics of {@link #getNeighborList()} to tune the skin.
+     * <p>Only has an effect if {@link #isArrayStorage() array storage} is enabled.
+     * Takes precedence over {@link #symmetricPairs}.
+     */
+    public double neighborListSkin = 0;
+    private final NeighborList neighborList = new NeighborList();
+    /**
+     * Largest displacement since the neighbor lists were built, one entry per chunk.
+     */
+    private double[] chunkDisplacements;
+    private final LongAdder neighborsWithinRmax = new LongAdder();
+
+    /**
+     * One of each pair of opposite offsets in {@link #containerNeighborhood}.
+     */
+    private int[][] symmetricNeighborhood;
+    /**
+     * Band <code>b</code> contains the container rows <code>bandStarts[b] ... bandStarts[b + 1] - 1</code>,
+     * or <code>null</code> if symmetric pairs are not possible with the current container layout.
+     */
+    private int[] bandStarts;
+
+    /**
+     * If this also implements {@link PrimitiveAccelerator}, the allocation-free
+     * {@link PrimitiveAccelerator#accelerate(double, double, double, double, double[])}
+     * is used during {@link #update()}.
+     */
     public Accelerator accelerator;
+    /**
+     * The accelerator that is used during {@link #update()}.
+     * Is derived from {@link #accelerator} at the beginning of each update.
+     */
+    private PrimitiveAccelerator primitiveAccelerator;
+    /**
+     * Buffers for {@link PrimitiveAccelerator#accelerate(double, double, double, double, double[])}, one per thread.
+     */
+    private final ThreadLocal<double[]> accelerationBuffers = ThreadLocal.withInitial(() -> new double[3]);
+
+    /**
+     * <code>null</code> if the SIMD kernel is not available.
+     */
+    private static final VectorForceKernel VECTOR_KERNEL = VectorForceKernel.load();
+    /**
+     * If this is <code>true</code> and the {@link #accelerator} is a {@link ParticleLifeAccelerator},
+     * the velocity update computes the forces of several neighbors at once with SIMD instructions.
+     * <p>Only has an effect if {@link #isArrayStorage() array storage} is enabled and
+     * if the SIMD kernel is available, see {@link #isVectorKernelAvailable()}.
+     * Otherwise, or for other accelerators, the forces are computed one neighbor at a time.
+     */
+    public boolean useVectorKernel = true;
+    /**
+     * Whether the SIMD kernel is used in the current update.
+     */
+    private boolean vectorKernelActive = false;
+    private double vectorKernelBeta;
+    /**
+     * Copy of {@link PhysicsSettings#matrix} in row-major order, taken at the beginning of each update.
+     * The entry at (i, j) is <code>matrixValues[i * matrixSize + j]</code>.
+     * This way, the velocity update doesn't call the {@link Matrix} interface for each pair of particles,
+     * and changes to the matrix during an update only take effect in the next update.
+     */
+    private double[] matrixValues = new double[0];
+    private int matrixSize = 0;
+    /**
+     * If this is <code>true</code>, the particles within each container are sorted by type.
+     * Neighbors of the same type then follow each other, so that consecutive pairs
+     * use the same matrix entry.
+     * <p>Note that this changes the order of the particles,
+     * so the results can differ by rounding errors.
+     */
+    public boolean sortContainersByType = false;
+    /**
+     * If this is <code>true</code>, the velocities and positions are updated in a single parallel pass
+     * instead of two, which saves a barrier and a sweep over the particles per update.
+     * The new velocities and positions are written into a separate buffer,
+     * so that the velocity update still sees the old positions of the neighbors, and the results don't change.
+     * <p>Only has an effect if {@link #isArrayStorage() array storage} is enabled
+     * and {@link #symmetricPairs} are not used (they write to the velocities of both particles of a pair).
+     * If the update is stopped with {@link #forceUpdateStop()}, no particle moves in that update.
+     */
+    public boolean fusedUpdate = false;
+    /**
+     * If this is <code>true</code>, the position pass also computes the container of each particle
+     * for the next update and counts the particles per container, right after moving them.
+     * The next update then skips that part of sorting the particles into containers,
+     * so it is hidden behind the position pass, which reads the positions anyway.
+     * <p>Only has an effect if {@link #isArrayStorage() array storage} is enabled
+     * and neither {@link #fusedUpdate} nor neighbor lists ({@link #neighborListSkin}) are used.
+     * If positions in the particle store are modified directly between updates,
+     * the next update still sorts those particles into the containers of their previous positions
+     * (the control methods like {@link #setPositions()} or {@link #applyParticles()} discard the precomputed containers).
+     */
+    public boolean pipelinedBinning = false;
+    /**
+     * If this is <code>true</code>, the position pass records which particles moved into another container,
+     * and the next update only re-places those particles when sorting the particles into containers.
+     * The particles that stay in their container are moved in whole runs, so the cost of computing
+     * the containers scales with the number of movers instead of the number of particles.
+     * The order of the particles is the same as with a full sort.
+     * <p>If more than {@link #maxMoverFraction} of the particles changed their container,
+     * the particles are sorted from scratch instead.
+     * <p>Only has an effect if {@link #isArrayStorage() array storage} is enabled
+     * and neither {@link #fusedUpdate} nor neighbor lists ({@link #neighborListSkin}) are used.
+     * Takes precedence over {@link #pipelinedBinning}.
+     * Like there, positions in the particle store must not be modified directly between updates.
+     */
+    public boolean incrementalContainers = false;
+    /**
+     * @see #incrementalContainers
+     */
+    public double maxMoverFraction = 0.1;
     public MatrixGenerator matrixGenerator;
     public PositionSetter positionSetter;
     /**
@@ -34,8 +225,91 @@ public class Physics {
      */
     public TypeSetter typeSetter;
 
+    /**
+     * On how many threads the update is distributed.
+     * At most one thread per available processor is used, see {@link LoadDistributor#getMaxThreads()}.
+     * <p>A value of 0 or less chooses the number of threads automatically:
+     * the {@link ThreadAutotuner} (see {@link #getThreadAutotuner()}) measures the duration of the updates
+     * and adjusts the number of threads and how finely the work is split between them.
+     */
     public int preferredNumberOfThreads = 12;
-    private final LoadDistributor loadDistributor = new LoadDistributor();
+    private final ThreadAutotuner threadAutotuner = new ThreadAutotuner();
+    private LoadDistributor loadDistributor = new LoadDistributor();
+    /**
+     * Whether {@link #loadDistributor} belongs to this instance, or is shared, e.g. by a {@link SimulationBatch}.
+     */
+    private boolean ownsLoadDistributor = true;
+
+    /**
+     * Is notified at the end of each {@link #update()}, on the thread that called {@link #update()}.
+     */
+    public interface UpdateListener {
+        /**
+         * The particles must not be modified and references to the particle arrays must not be kept,
+         * as they are re-used in the next update.
+         *
+         * @param physics the physics that was just updated
+         */
+        void onUpdate(Physics physics);
+    }
+
+    private final List<UpdateListener> updateListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * If this is <code>true</code>, each update measures the time of its phases, the busy time of the threads,
+     * how many pairs of particles were checked and how full the containers are.
+     * The results can be polled with {@link #getMetrics()}
+     * and are also committed as JFR events (<code>com.particle_life.PhysicsUpdate</code>).
+     * <p>Counting the pairs takes an extra pass over all particles,
+     * which is not included in the measured times.
+     * If this is <code>false</code>, nothing is measured,
+     * unless a JFR recording has enabled the <code>com.particle_life.PhysicsUpdate</code> event.
+     */
+    public boolean collectMetrics = false;
+    private static final EventType UPDATE_EVENT_TYPE = EventType.getEventType(PhysicsUpdateEvent.class);
+    private volatile PhysicsMetrics metrics = null;
+    /**
+     * Incremented whenever particles are added or removed.
+     */
+    private int particleSetVersion = 0;
+
+    /**
+     * If this is <code>true</code>, the velocity update is cut into chunks of similar cost,
+     * estimated from how many particles are in the neighborhood of each container.
+     * This keeps all threads busy if the particles form dense clusters.
+     * Otherwise, each chunk contains the same number of particles.
+     */
+    public boolean occupancyAwareScheduling = true;
+    private long[] containerCosts;
+    private int[] chunkBounds;
+
+    private final ContainerSorter containerSorter = new ContainerSorter();
+    /**
+     * The store for which the containers of the {@link #containerSorter} were already counted
+     * by a {@link #pipelinedBinning pipelined} position pass, or <code>null</code>.
+     */
+    private ParticleStore binnedStore = null;
+    // the container layout that the precomputed containers belong to
+    private int[] binnedIndicesX;
+    private int[] binnedIndicesY;
+    /**
+     * The store whose only changes since it was sorted into containers are the movers
+     * recorded by an {@link #incrementalContainers incremental} position pass, or <code>null</code>.
+     */
+    private ParticleStore movedStore = null;
+    // the container layout that the movers belong to
+    private int[] movedIndicesX;
+    private int[] movedIndicesY;
+    // for each sorting chunk: the indices of the movers, their previous and their new containers
+    private int[][] moverIndices;
+    private int[][] moverSources;
+    private int[][] moverTargets;
+    private int[] moverCounts;
+    // buffers for sorting incrementally, with one entry per mover or per container
+    private int[] movers;
+    private int[] incomingMovers;
+    private int[] incomingStarts;
+    private int[] containersBuffer;
 
     /**
      * This is used to stop the updating mid-particle.
@@ -73,35 +347,144 @@ public class Physics {
         this.typeSetter = typeSetter;
 
         calcNxNy();
-        makeContainerNeighborhood();
+        makeContainerNeighborhood(1, settings.rmax);
 
         generateMatrix();
         setParticleCount(10000);  // uses current position setter to create particles
     }
 
     private void calcNxNy() {
-        nx = (int) Math.floor(1 / containerSize);
-        ny = (int) Math.floor(1 / containerSize);
+        nx = Math.max(1, (int) Math.floor(1 / containerSize));
+        ny = Math.max(1, (int) Math.floor(1 / containerSize));
+    }
+
+    /**
+     * Creates the offsets of all containers that can contain particles within <code>radius</code>
+     * of a particle in the container at offset (0, 0).
+     * <p>The containers have an edge length of at least <code>radius / subdivision</code>,
+     * so offsets up to <code>subdivision</code> must be checked in each direction.
+     * Offsets of containers whose closest point is further away than <code>radius</code> are skipped.
+     * If the world wraps around and there are only few containers, offsets that would lead
+     * to the same container are only included once.
+     */
+    private void makeContainerNeighborhood(int subdivision, double radius) {
+        double w = 1.0 / nx;  // container edge length
+        double h = 1.0 / ny;
+        int[] offsetsX = makeContainerOffsets(subdivision, nx, settings.wrap);
+        int[] offsetsY = makeContainerOffsets(subdivision, ny, settings.wrap);
+
+        int[][] neighborhood = new int[offsetsX.length * offsetsY.length][];
+        int n = 0;
+        for (int dy : offsetsY) {
+            for (int dx : offsetsX) {
+                // distance between the closest points of the two containers
+                double gapX = Math.max(0, Math.abs(dx) - 1) * w;
+                double gapY = Math.max(0, Math.abs(dy) - 1) * h;
+                if (gapX * gapX + gapY * gapY <= radius * radius) {
+                    neighborhood[n++] = new int[]{dx, dy};
+                }
+            }
+        }
+        containerNeighborhood = Arrays.copyOf(neighborhood, n);
+        neighborhoodSubdivision = subdivision;
+        neighborhoodRadius = radius;
+        neighborhoodWrap = settings.wrap;
+        makeSymmetricNeighborhood();
+    }
+
+    /**
+     * Takes one offset of each pair of opposite offsets from {@link #containerNeighborhood},
+     * namely those that point to a higher row or to the right within the same row.
+     * Also prepares the bands of container rows used by {@link #updateVelocitiesSymmetric()}.
+     */
+    private void makeSymmetricNeighborhood() {
+        int maxX = 0;
+        int maxY = 0;
+        int n = 0;
+        int[][] half = new int[containerNeighborhood.length][];
+        for (int[] offset : containerNeighborhood) {
+            maxX = Math.max(maxX, Math.abs(offset[0]));
+            maxY = Math.max(maxY, Math.abs(offset[1]));
+            if (offset[1] > 0 || (offset[1] == 0 && offset[0] > 0)) {
+                half[n++] = offset;
+            }
+        }
+        symmetricNeighborhood = Arrays.copyOf(half, n);
+
+        // If the world wraps around, offset d and offset -d must not lead to the same container.
+        boolean offsetsAreUnique = !settings.wrap || (2 * maxX + 1 <= nx && 2 * maxY + 1 <= ny);
+
+        // Bands must be at least maxY rows high, because a container writes into up to maxY rows above it.
+        // An even number of bands is needed, so that the last band and the first band have different colors.
+        int nBands = ny / Math.max(1, maxY);
+        if (nBands % 2 == 1) nBands--;
+        if (!offsetsAreUnique || nBands < 2) {
+            bandStarts = null;  // symmetric pairs not possible
+            return;
+        }
+        bandStarts = new int[nBands + 1];
+        for (int b = 0; b <= nBands; b++) {
+            bandStarts[b] = ContainerSorter.chunkStart(ny, nBands, b);
+        }
+    }
+
+    /**
+     * @return the offsets -radius ... radius, but if <code>wrap == true</code>,
+     * only one offset per container, namely the one with the smallest absolute value.
+     */
+    private static int[] makeContainerOffsets(int radius, int n, boolean wrap) {
+        if (!wrap || 2 * radius + 1 <= n) {
+            int[] offsets = new int[2 * radius + 1];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = i - radius;
+            }
+            return offsets;
+        }
+        // every container is reached, e.g. for n = 4: -1, 0, 1, 2
+        int[] offsets = new int[n];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = i - (n - 1) / 2;
+        }
+        return offsets;
     }
 
-    private void makeContainerNeighborhood() {
-        containerNeighborhood = new int[][]{
-                new int[]{-1, -1},
-                new int[]{0, -1},
-                new int[]{1, -1},
-                new int[]{-1, 0},
-                new int[]{0, 0},
-                new int[]{1, 0},
-                new int[]{-1, 1},
-                new int[]{0, 1},
-                new int[]{1, 1}
-        };
+    /**
+     * Chooses the container subdivision with the lowest estimated cost per particle.
+     * The cost is estimated as the number of visited containers times
+     * the cost of visiting a container plus the expected number of particles in it.
+     */
+    private int chooseContainerSubdivision(double radius) {
+        int n = getParticleCount();
+        int best = 1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (int subdivision = 1; subdivision <= MAX_CONTAINER_SUBDIVISION; subdivision++) {
+            double w = radius / subdivision;
+            // number of containers that intersect the circle of the given radius
+            int visited = 0;
+            for (int dy = -subdivision; dy <= subdivision; dy++) {
+                for (int dx = -subdivision; dx <= subdivision; dx++) {
+                    double gapX = Math.max(0, Math.abs(dx) - 1) * w;
+                    double gapY = Math.max(0, Math.abs(dy) - 1) * w;
+                    if (gapX * gapX + gapY * gapY <= radius * radius) {
+                        visited++;
+                    }
+                }
+            }
+            double cost = visited * (CONTAINER_VISIT_COST + n * w * w);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = subdivision;
+            }
+        }
+        return best;
+    }
 
-        //todo:
-        // top left corner
-        // top right corner
-        // bottom left corner
-        // bottom right corner
+    /**
+     * @return the container subdivision that was used in the last call to {@link #update()}
+     * @see #containerSubdivision
+     */
+    public int getContainerSubdivision() {
+        return neighborhoodSubdivision;
     }
 
     /**
@@ -110,27 +493,521 @@ public class Physics {
      * in the particle array according to <code>this.settings</code>.
      */
     public void update() {
-        updateParticles();
+        if (preferredNumberOfThreads > 0) {
+            updateParticles();
+        } else {
+            threadAutotuner.beforeUpdate(getParticleCount(), settings.rmax, loadDistributor.chunksPerThread,
+                    loadDistributor.getMaxThreads());
+            loadDistributor.chunksPerThread = threadAutotuner.getChunksPerThread();
+            long startTime = System.nanoTime();
+            updateParticles();
+            threadAutotuner.afterUpdate(System.nanoTime() - startTime);
+        }
+
+        for (UpdateListener listener : updateListeners) {
+            listener.onUpdate(this);
+        }
+    }
+
+    /**
+     * @return the tuner that chooses the number of threads if {@link #preferredNumberOfThreads} is 0 or less
+     */
+    public ThreadAutotuner getThreadAutotuner() {
+        return threadAutotuner;
+    }
+
+    /**
+     * @return {@link #preferredNumberOfThreads}, or the number chosen by the {@link ThreadAutotuner}
+     */
+    private int numberOfThreads() {
+        return preferredNumberOfThreads > 0 ? preferredNumberOfThreads : threadAutotuner.getThreads();
+    }
+
+    public void addUpdateListener(UpdateListener listener) {
+        updateListeners.add(listener);
+    }
+
+    public void removeUpdateListener(UpdateListener listener) {
+        updateListeners.remove(listener);
+    }
+
+    /**
+     * Use this to find out whether the particles are still the same ones,
+     * e.g. to follow them with the {@link ParticleStore#id particle ids}.
+     *
+     * @return a number that changes whenever particles are added, removed or replaced
+     * (e.g. by {@link #setParticleCount(int)}, {@link #setArrayStorage(boolean)} or when a {@link Checkpoint} is loaded)
+     */
+    public int getParticleSetVersion() {
+        return particleSetVersion;
     }
 
     private void updateParticles() {
 
+        if (collectMetrics || UPDATE_EVENT_TYPE.isEnabled()) {
+            updateParticlesWithMetrics();
+            return;
+        }
+
+        startUpdate();
+
+        buildContainers();
+        if (usesFusedUpdate()) {
+            updateVelocitiesAndPositions();
+        } else {
+            updateVelocities();
+            updatePositions();
+        }
+
+        updateThreadsShouldRun.set(false);
+    }
+
+    private void updateParticlesWithMetrics() {
+        PhysicsMetrics metrics = new PhysicsMetrics();
+        metrics.threads = numberOfThreads();
+        PhysicsUpdateEvent event = new PhysicsUpdateEvent();
+        event.begin();
+
+        // only measures the loads of this update, even if the load distributor is shared
+        LoadDistributor.BusyTime busyTime = new LoadDistributor.BusyTime();
+
+        long startTime = System.nanoTime();
+        startUpdate();
+        loadDistributor.measureBusyTime(busyTime, this::buildContainers);
+        long containersTime = System.nanoTime();
+
+        countPairs(metrics);
+        measureOccupancy(metrics);
+
+        long velocitiesStartTime = System.nanoTime();
+        final boolean fused = usesFusedUpdate();
+        loadDistributor.measureBusyTime(busyTime, () -> {
+            if (fused) {
+                // the positions are updated in the same pass
+                updateVelocitiesAndPositions();
+            } else {
+                updateVelocities();
+            }
+        });
+        long velocitiesTime = System.nanoTime();
+        if (!fused) {
+            loadDistributor.measureBusyTime(busyTime, this::updatePositions);
+        }
+        long endTime = System.nanoTime();
+
+        updateThreadsShouldRun.set(false);
+
+        metrics.containerNanos = containersTime - startTime;
+        metrics.velocityNanos = velocitiesTime - velocitiesStartTime;
+        metrics.positionNanos = endTime - velocitiesTime;
+        metrics.updateNanos = metrics.containerNanos + metrics.velocityNanos + metrics.positionNanos;
+        metrics.busyNanosPerThread = busyTime.getBusyNanos();
+        metrics.busyNanos = metrics.busyNanosPerThread.values().stream().mapToLong(Long::longValue).sum();
+        if (collectMetrics) {
+            this.metrics = metrics;
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.particles = getParticleCount();
+            event.threads = metrics.threads;
+            event.containerNanos = metrics.containerNanos;
+            event.velocityNanos = metrics.velocityNanos;
+            event.positionNanos = metrics.positionNanos;
+            event.busyNanos = metrics.busyNanos;
+            event.candidatePairs = metrics.candidatePairs;
+            event.acceptedPairs = metrics.acceptedPairs;
+            event.maxOccupancy = metrics.maxOccupancy;
+            event.occupancyHistogram = Arrays.toString(metrics.occupancyHistogram);
+            event.commit();
+        }
+    }
+
+    /**
+     * @return the measurements of the last update with {@link #collectMetrics} enabled,
+     * or <code>null</code> if there was no such update yet.
+     * Can be called from any thread.
+     */
+    public PhysicsMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Counts the pairs of particles that the velocity update looks at, and how many of them are within rmax.
+     * Uses the current containers (or neighbor lists) and positions,
+     * so it must be called before the positions are updated.
+     */
+    private void countPairs(PhysicsMetrics metrics) {
+        final LongAdder candidates = new LongAdder();
+        final LongAdder accepted = new LongAdder();
+        final boolean neighborListUsed = usesNeighborList();
+        final boolean symmetric = usesSymmetricPairs();
+
+        loadDistributor.distributeLoadEvenly(getParticleCount(), numberOfThreads(), i -> {
+            final double px = getPositionX(i);
+            final double py = getPositionY(i);
+            long c = 0;
+            long a = 0;
+            if (neighborListUsed) {
+                final int stop = neighborList.offsets[i + 1];
+                for (int k = neighborList.offsets[i]; k < stop; k++) {
+                    c++;
+                    if (isWithinRmax(px, py, neighborList.neighbors[k])) a++;
+                }
+            } else {
+                int cx0 = getContainerX(px);
+                int cy0 = getContainerY(py);
+                for (int[] containerNeighbor : containerNeighborhood) {
+                    int ci = getNeighborContainerIndex(cx0, cy0, containerNeighbor);
+                    if (ci == -1) continue;
+                    int start = ci == 0 ? 0 : containers[ci - 1];
+                    int stop = containers[ci];
+                    for (int j = start; j < stop; j++) {
+                        if (i == j) continue;
+                        c++;
+                        if (isWithinRmax(px, py, j)) a++;
+                    }
+                }
+            }
+            candidates.add(c);
+            accepted.add(a);
+            return true;
+        });
+
+        // with symmetric pairs, each pair is only looked at once
+        metrics.candidatePairs = symmetric ? candidates.sum() / 2 : candidates.sum();
+        metrics.acceptedPairs = symmetric ? accepted.sum() / 2 : accepted.sum();
+    }
+
+    private boolean isWithinRmax(double px, double py, int j) {
+        double dx = getPositionX(j) - px;
+        double dy = getPositionY(j) - py;
+        if (settings.wrap) {
+            dx = Range.wrapConnection(dx);
+            dy = Range.wrapConnection(dy);
+        }
+        double distanceSquared = dx * dx + dy * dy;
+        return distanceSquared != 0 && distanceSquared <= settings.rmax * settings.rmax;
+    }
+
+    private double getPositionX(int i) {
+        return store != null ? store.x[i] : particles[i].position.x;
+    }
+
+    private double getPositionY(int i) {
+        return store != null ? store.y[i] : particles[i].position.y;
+    }
+
+    private void measureOccupancy(PhysicsMetrics metrics) {
+        long[] histogram = new long[Integer.SIZE + 1];
+        int maxOccupancy = 0;
+        for (int cy = 0; cy < ny; cy++) {
+            for (int cx = 0; cx < nx; cx++) {
+                int count = getContainerCount(getContainerIndexAt(cx, cy));
+                // 0 -> 0, 1 -> 1, 2..3 -> 2, 4..7 -> 3, ...
+                histogram[Integer.SIZE - Integer.numberOfLeadingZeros(count)]++;
+                maxOccupancy = Math.max(maxOccupancy, count);
+            }
+        }
+        metrics.maxOccupancy = maxOccupancy;
+        metrics.occupancyHistogram = Arrays.copyOf(histogram, Integer.SIZE - Integer.numberOfLeadingZeros(maxOccupancy) + 1);
+    }
+
+    // The phases of an update step are package-private so that they can be benchmarked separately.
+
+    /**
+     * Must be called before the phases of an update step are run.
+     */
+    void startUpdate() {
         updateThreadsShouldRun.set(true);
+        updatePrimitiveAccelerator();
+        if (accelerator instanceof TabulatedAccelerator tabulatedAccelerator) {
+            tabulatedAccelerator.prepare(settings.matrix);
+        }
+        updateMatrixValues();
 
-        makeContainers();
+        vectorKernelActive = useVectorKernel && VECTOR_KERNEL != null && accelerator instanceof ParticleLifeAccelerator;
+        if (vectorKernelActive) {
+            vectorKernelBeta = ((ParticleLifeAccelerator) accelerator).beta;
+        }
+    }
+
+    private void updateMatrixValues() {
+        final Matrix matrix = settings.matrix;
+        matrixValues = EngineSupport.matrixValues(matrix, matrixValues);
+        matrixSize = matrix.size();
+    }
 
-        loadDistributor.distributeLoadEvenly(particles.length, preferredNumberOfThreads, i -> {
+    /**
+     * The SIMD force kernel is only available if this library was built with {@code -PvectorApi}
+     * and the JVM was started with {@code --add-modules jdk.incubator.vector}.
+     *
+     * @return whether the SIMD force kernel can be used
+     * @see #useVectorKernel
+     */
+    public static boolean isVectorKernelAvailable() {
+        return VECTOR_KERNEL != null;
+    }
+
+    /**
+     * Sorts the particles into containers.
+     */
+    void buildContainers() {
+        if (usesNeighborList()) {
+            neighborList.countStep();
+            if (neighborListNeedsRebuild()) {
+                makeContainersArrays(settings.rmax + neighborListSkin);
+                buildNeighborList();
+            }
+        } else if (store != null) {
+            neighborList.invalidate();
+            makeContainersArrays(settings.rmax);
+        } else {
+            makeContainers();
+        }
+    }
+
+    /**
+     * Updates the velocity of each particle.
+     * Requires that {@link #buildContainers()} was called before.
+     */
+    void updateVelocities() {
+        if (usesNeighborList()) {
+            updateVelocitiesNeighborList();
+            return;
+        }
+        if (usesSymmetricPairs()) {
+            updateVelocitiesSymmetric();
+            return;
+        }
+        LoadDistributor.IndexProcessor indexProcessor;
+        if (store != null) {
+            indexProcessor = i -> {
+                if (!updateThreadsShouldRun.get()) return false;
+                updateVelocityArrays(i, store);
+                return true;
+            };
+        } else {
+            indexProcessor = i -> {
+                if (!updateThreadsShouldRun.get()) return false;
+                updateVelocity(i);
+                return true;
+            };
+        }
+        distributeParticleLoad(indexProcessor);
+    }
+
+    /**
+     * Same result as {@link #updateVelocities()} followed by {@link #updatePositions()}, but in a single pass.
+     * The new velocities and positions are written into {@link #motionBuffer}, which is then swapped with the store.
+     * Requires that {@link #buildContainers()} was called before.
+     *
+     * @see #fusedUpdate
+     */
+    void updateVelocitiesAndPositions() {
+        final ParticleStore s = store;
+        if (motionBuffer == null || motionBuffer.size() != s.size()) {
+            motionBuffer = new ParticleStore(s.size());
+        }
+        final ParticleStore out = motionBuffer;
+        final boolean neighborListUsed = usesNeighborList();
+        movedStore = null;
+        distributeParticleLoad(i -> {
             if (!updateThreadsShouldRun.get()) return false;
-            updateVelocity(i);
+            if (neighborListUsed) {
+                updateVelocityNeighborList(i, out);
+            } else {
+                updateVelocityArrays(i, out);
+            }
+            updatePositionArrays(i, s, out);
             return true;
         });
-        loadDistributor.distributeLoadEvenly(particles.length, preferredNumberOfThreads, i -> {
-            if (!updateThreadsShouldRun.get()) return false;
-            updatePosition(i);
+        // if the update was stopped, some particles are missing in the buffer
+        if (updateThreadsShouldRun.get()) {
+            s.swapMotion(out);
+        }
+    }
+
+    /**
+     * Processes all particles, balancing the chunks by the work per particle
+     * if {@link #occupancyAwareScheduling} is enabled.
+     */
+    private void distributeParticleLoad(LoadDistributor.IndexProcessor indexProcessor) {
+        if (occupancyAwareScheduling && numberOfThreads() > 1) {
+            int nChunks = usesNeighborList() ? makeNeighborListChunks() : makeOccupancyChunks();
+            loadDistributor.distributeLoad(chunkBounds, nChunks, numberOfThreads(), indexProcessor);
+        } else {
+            loadDistributor.distributeLoadEvenly(getParticleCount(), numberOfThreads(), indexProcessor);
+        }
+    }
+
+    private boolean usesSymmetricPairs() {
+        return !usesNeighborList() && store != null && symmetricPairs && bandStarts != null;
+    }
+
+    private boolean usesFusedUpdate() {
+        return fusedUpdate && store != null && !usesSymmetricPairs();
+    }
+
+    /**
+     * Updates the position of each particle according to its velocity.
+     */
+    void updatePositions() {
+        movedStore = null;
+        if (store != null && incrementalContainers && !usesNeighborList()) {
+            updatePositionsAndTrackMovers();
+        } else if (store != null && pipelinedBinning && !usesNeighborList()) {
+            updatePositionsAndBin();
+        } else if (store != null) {
+            loadDistributor.distributeLoadEvenly(store.size(), numberOfThreads(), i -> {
+                if (!updateThreadsShouldRun.get()) return false;
+                updatePositionArrays(i, store, store);
+                return true;
+            });
+        } else {
+            loadDistributor.distributeLoadEvenly(particles.length, numberOfThreads(), i -> {
+                if (!updateThreadsShouldRun.get()) return false;
+                updatePosition(i);
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Same as {@link #updatePositions()}, but also does the first part of {@link #sortIntoContainers}
+     * for the next update: the new container of each particle is computed and counted per sorting chunk.
+     *
+     * @see #pipelinedBinning
+     */
+    private void updatePositionsAndBin() {
+        final ParticleStore s = store;
+        final int n = s.size();
+        final int nChunks = getSortingChunkCount(n);
+        containerSorter.prepare(n, nChunks, containers.length);
+        final int[] particleContainers = containerSorter.particleContainers;
+        final int[][] histograms = containerSorter.histograms;
+
+        binnedStore = null;
+        // the work per particle is even, so the sorting chunks are also fine for the position pass
+        loadDistributor.distributeLoadEvenly(nChunks, numberOfThreads(), chunk -> {
+            int[] histogram = histograms[chunk];
+            Arrays.fill(histogram, 0);
+            int stop = ContainerSorter.chunkStart(n, nChunks, chunk + 1);
+            for (int i = ContainerSorter.chunkStart(n, nChunks, chunk); i < stop; i++) {
+                if (!updateThreadsShouldRun.get()) return false;
+                updatePositionArrays(i, s, s);
+                int ci = getContainerIndex(s.x[i], s.y[i]);
+                particleContainers[i] = ci;
+                histogram[ci]++;
+            }
             return true;
         });
 
-        updateThreadsShouldRun.set(false);
+        // if the update was stopped, some histograms are incomplete
+        if (updateThreadsShouldRun.get()) {
+            binnedStore = s;
+            binnedIndicesX = containerIndicesX;
+            binnedIndicesY = containerIndicesY;
+        }
+    }
+
+    /**
+     * Same as {@link #updatePositions()}, but also records the particles that moved into another container,
+     * for {@link #sortIncrementally(ParticleStore)} in the next update.
+     * Stops recording if a sorting chunk has too many movers, so that the next update sorts from scratch.
+     *
+     * @see #incrementalContainers
+     */
+    private void updatePositionsAndTrackMovers() {
+        final ParticleStore s = store;
+        final int n = s.size();
+        final int nChunks = getSortingChunkCount(n);
+        prepareMoverBuffers(n, nChunks);
+        final int[][] moverIndices = this.moverIndices;
+        final int[][] moverSources = this.moverSources;
+        final int[][] moverTargets = this.moverTargets;
+        final int[] moverCounts = this.moverCounts;
+        final int[] containers = this.containers;
+
+        // the work per particle is even, so the sorting chunks are also fine for the position pass
+        loadDistributor.distributeLoadEvenly(nChunks, numberOfThreads(), chunk -> {
+            int[] indices = moverIndices[chunk];
+            int[] sources = moverSources[chunk];
+            int[] targets = moverTargets[chunk];
+            int count = 0;
+            int start = ContainerSorter.chunkStart(n, nChunks, chunk);
+            int stop = ContainerSorter.chunkStart(n, nChunks, chunk + 1);
+            // the store is sorted by container, so the previous container is found by walking along the containers
+            int source = firstContainerEndingAfter(containers, start);
+            for (int i = start; i < stop; i++) {
+                if (!updateThreadsShouldRun.get()) return false;
+                while (containers[source] <= i) source++;
+                updatePositionArrays(i, s, s);
+                int target = getContainerIndex(s.x[i], s.y[i]);
+                if (source != target) {
+                    if (count < indices.length) {
+                        indices[count] = i;
+                        sources[count] = source;
+                        targets[count] = target;
+                    }
+                    count++;
+                }
+            }
+            moverCounts[chunk] = count;
+            return true;
+        });
+
+        // if the update was stopped, some movers are missing
+        if (!updateThreadsShouldRun.get()) return;
+        for (int chunk = 0; chunk < nChunks; chunk++) {
+            if (moverCounts[chunk] > moverIndices[chunk].length) return;
+        }
+        movedStore = s;
+        movedIndicesX = containerIndicesX;
+        movedIndicesY = containerIndicesY;
+    }
+
+    /**
+     * @return the first container whose end is greater than <code>i</code>, that is, the container of particle <code>i</code>
+     */
+    private static int firstContainerEndingAfter(int[] containers, int i) {
+        int low = 0;
+        int high = containers.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (containers[middle] <= i) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void prepareMoverBuffers(int n, int nChunks) {
+        if (moverCounts == null || moverCounts.length != nChunks) {
+            moverCounts = new int[nChunks];
+            moverIndices = new int[nChunks][];
+            moverSources = new int[nChunks][];
+            moverTargets = new int[nChunks][];
+        }
+        for (int chunk = 0; chunk < nChunks; chunk++) {
+            int chunkSize = ContainerSorter.chunkStart(n, nChunks, chunk + 1) - ContainerSorter.chunkStart(n, nChunks, chunk);
+            int capacity = (int) (maxMoverFraction * chunkSize);
+            if (moverIndices[chunk] == null || moverIndices[chunk].length != capacity) {
+                moverIndices[chunk] = new int[capacity];
+                moverSources[chunk] = new int[capacity];
+                moverTargets[chunk] = new int[capacity];
+            }
+        }
+    }
+
+    private void updatePrimitiveAccelerator() {
+        if (accelerator instanceof PrimitiveAccelerator a) {
+            primitiveAccelerator = a;
+        } else if (!(primitiveAccelerator instanceof AcceleratorAdapter adapter) || adapter.accelerator != accelerator) {
+            primitiveAccelerator = new AcceleratorAdapter(accelerator);
+        }
     }
 
     /**
@@ -153,30 +1030,155 @@ public class Physics {
     /**
      * Shutdown the internal thread pool.
      * Blocks until all tasks have completed execution.
+     * Does nothing if the thread pool is shared, see {@link #shareLoadDistributor(LoadDistributor)}.
      *
      * @param timeoutMilliseconds how long to wait for update threads to finish their execution (in milliseconds)
      * @return {@code true} if all tasks terminated and {@code false} if the timeout elapsed before termination
      */
     public boolean shutdown(long timeoutMilliseconds) throws InterruptedException {
+        if (!ownsLoadDistributor) return true;
         return loadDistributor.shutdown(timeoutMilliseconds);
     }
 
+    /**
+     * Distributes the updates on the given load distributor instead of an own thread pool,
+     * so that many instances can share the same threads.
+     * The own thread pool is shut down, and the shared one is not shut down by {@link #shutdown(long)}.
+     * Must not be called during an update.
+     */
+    void shareLoadDistributor(LoadDistributor shared) {
+        if (shared == loadDistributor) return;
+        if (ownsLoadDistributor) {
+            try {
+                loadDistributor.shutdown(0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        loadDistributor = shared;
+        ownsLoadDistributor = false;
+    }
+
     // PUBLIC CONTROL METHODS:
 
+    /**
+     * Switches between storing the particles as {@link Particle} objects (the default)
+     * and storing them in a {@link ParticleStore}, which is a structure of primitive arrays.
+     * Array storage avoids the pointer indirections of {@link Particle} objects in the update
+     * and scales better to large particle counts.<br>
+     * The particles are converted, so no simulation state is lost.
+     *
+     * @param enabled whether the particles should be stored in primitive arrays
+     * @see #getParticleStore()
+     */
+    public void setArrayStorage(boolean enabled) {
+        if (enabled == isArrayStorage()) return;
+        neighborList.invalidate();
+        binnedStore = null;
+        movedStore = null;
+        particleSetVersion++;
+        if (enabled) {
+            store = ParticleStore.of(particles);
+            storeBuffer = null;
+            motionBuffer = null;
+            particlesBuffer = null;
+        } else {
+            particles = store.toParticles(particles);
+            store = null;
+            storeBuffer = null;
+            motionBuffer = null;
+        }
+    }
+
+    public boolean isArrayStorage() {
+        return store != null;
+    }
+
+    /**
+     * @return the particle store if {@link #isArrayStorage() array storage} is enabled,
+     * otherwise <code>null</code>.
+     * Note that {@link #update()} swaps the store with an internal buffer,
+     * so the returned object is only valid until the next call to {@link #update()}.
+     */
+    public ParticleStore getParticleStore() {
+        return store;
+    }
+
+    /**
+     * Replaces the particle store, e.g. when loading a {@link Checkpoint}.
+     * Array storage must be enabled.
+     */
+    void setParticleStore(ParticleStore newStore) {
+        neighborList.invalidate();
+        binnedStore = null;
+        movedStore = null;
+        store = newStore;
+        store.resetIds();
+        particleSetVersion++;
+    }
+
+    /**
+     * Must be called after {@link #particles} were replaced, e.g. when loading a {@link Checkpoint}.
+     */
+    void particlesReplaced() {
+        particleSetVersion++;
+    }
+
+    /**
+     * @return the current number of particles
+     */
+    public int getParticleCount() {
+        return store != null ? store.size() : particles.length;
+    }
+
+    /**
+     * Updates {@link #particles} with the current state of the particle store.
+     * This re-uses the existing {@link Particle} objects where possible.
+     * Does nothing if {@link #isArrayStorage() array storage} is disabled.
+     *
+     * @return {@link #particles}
+     */
+    public Particle[] syncParticles() {
+        if (store != null) {
+            particles = store.toParticles(particles);
+        }
+        return particles;
+    }
+
+    /**
+     * Writes the state of {@link #particles} back into the particle store.
+     * Use this after modifying {@link #particles} that were obtained with {@link #syncParticles()}.
+     * Does nothing if {@link #isArrayStorage() array storage} is disabled.
+     */
+    public void applyParticles() {
+        if (store == null) return;
+        if (particles.length != store.size()) {
+            throw new IllegalStateException("Particle count changed since last call to syncParticles().");
+        }
+        neighborList.invalidate();
+        binnedStore = null;
+        movedStore = null;
+        for (int i = 0; i < particles.length; i++) {
+            store.set(i, particles[i]);
+        }
+    }
+
     /**
      * Call this to initialize particles or when the particle count changed.
      * If the particle count changed, new particles will be created using the active position setter.
      */
     public void setPositions() {
+        if (store != null) {
+            binnedStore = null;
+            movedStore = null;
+            storeControl.setPositions();
+            return;
+        }
         Arrays.stream(particles).forEach(this::setPosition);
     }
 
     public void generateMatrix() {
-
-        int prevSize = settings.matrix != null ? settings.matrix.size() : DEFAULT_MATRIX_SIZE;
-        settings.matrix = matrixGenerator.makeMatrix(prevSize);
-
-        assert settings.matrix.size() == prevSize : "Matrix size should only change via setMatrixSize()";
+        ParticleControl.generateMatrix(settings, matrixGenerator);
     }
 
     // PRIVATE METHODS:
@@ -192,6 +1194,14 @@ public class Physics {
      * @param n The new number of particles. Must be 0 or greater.
      */
     public void setParticleCount(int n) {
+        if (store != null) {
+            setParticleCountArrays(n);
+            return;
+        }
+        if (particles == null || n != particles.length) {
+            particleSetVersion++;
+        }
+
         if (particles == null) {
             particles = new Particle[n];
             for (int i = 0; i < n; i++) {
@@ -226,6 +1236,16 @@ public class Physics {
         }
     }
 
+    private void setParticleCountArrays(int n) {
+        if (n == store.size()) return;
+        neighborList.invalidate();
+        binnedStore = null;
+        movedStore = null;
+
+        storeControl.setParticleCount(n);
+        particleSetVersion++;
+    }
+
     /**
      * This is a convenience method for quickly changing the matrix size
      * and getting the expected results.<br>
@@ -240,23 +1260,7 @@ public class Physics {
      * @see #ensureTypes()
      */
     public void setMatrixSize(int newSize) {
-        Matrix prevMatrix = settings.matrix;
-        int prevSize = prevMatrix.size();
-        if (newSize == prevSize) return;  // keep previous matrix
-
-        settings.matrix = matrixGenerator.makeMatrix(newSize);
-
-        assert settings.matrix.size() == newSize;
-
-        // copy as much as possible from previous matrix
-        int commonSize = Math.min(prevSize, newSize);
-        for (int i = 0; i < commonSize; i++) {
-            for (int j = 0; j < commonSize; j++) {
-                settings.matrix.set(i, j, prevMatrix.get(i, j));
-            }
-        }
-
-        if (newSize < prevSize) {
+        if (ParticleControl.changeMatrixSize(settings, matrixGenerator, newSize)) {
             ensureTypes(); // need to change types of particles that are not in the new matrix
         }
     }
@@ -268,6 +1272,10 @@ public class Physics {
      * are assigned a new type using the current {@link #typeSetter type setter}.
      */
     public void ensureTypes() {
+        if (store != null) {
+            storeControl.ensureTypes();
+            return;
+        }
         for (Particle p : particles) {
             if (p.type >= settings.matrix.size()) {
                 setType(p);
@@ -306,55 +1314,363 @@ public class Physics {
         p.velocity.z = 0;
     }
 
-    protected final void setType(Particle p) {
-        p.type = typeSetter.getType(new Vector3d(p.position), new Vector3d(p.velocity), p.type, settings.matrix.size());
+    protected final void setType(Particle p) {
+        p.type = typeSetter.getType(new Vector3d(p.position), new Vector3d(p.velocity), p.type, settings.matrix.size());
+    }
+
+    /**
+     * Gives {@link ParticleControl} access to the particle store.
+     */
+    private final class StoreControl extends ParticleControl {
+
+        @Override
+        PhysicsSettings settings() {
+            return settings;
+        }
+
+        @Override
+        MatrixGenerator matrixGenerator() {
+            return matrixGenerator;
+        }
+
+        @Override
+        PositionSetter positionSetter() {
+            return positionSetter;
+        }
+
+        @Override
+        TypeSetter typeSetter() {
+            return typeSetter;
+        }
+
+        @Override
+        int size() {
+            return store.size();
+        }
+
+        @Override
+        void resize(int n) {
+            store.resize(n);
+        }
+
+        @Override
+        void resetIds() {
+            store.resetIds();
+        }
+
+        @Override
+        void swap(int i, int j) {
+            store.swap(i, j);
+        }
+
+        @Override
+        int getType(int i) {
+            return store.type[i];
+        }
+
+        @Override
+        void putType(int i, int type) {
+            store.type[i] = type;
+        }
+
+        @Override
+        void getPosition(int i, Vector3d dest) {
+            dest.set(store.x[i], store.y[i], store.z[i]);
+        }
+
+        @Override
+        void getVelocity(int i, Vector3d dest) {
+            dest.set(store.vx[i], store.vy[i], store.vz[i]);
+        }
+
+        @Override
+        void putPosition(int i, Vector3d position) {
+            ensurePosition(position);
+            store.x[i] = position.x;
+            store.y[i] = position.y;
+            store.z[i] = position.z;
+            store.vx[i] = 0;
+            store.vy[i] = 0;
+            store.vz[i] = 0;
+        }
+    }
+
+    /**
+     * @param radius the distance up to which neighbors must be found via the containers
+     */
+    private void prepareContainers(double radius) {
+
+        // ensure that nx and ny are still OK
+        int subdivision = containerSubdivision > 0 ? containerSubdivision : chooseContainerSubdivision(radius);
+        containerSize = radius / subdivision;
+        int prevNx = nx;
+        int prevNy = ny;
+        calcNxNy();
+        if (nx != prevNx || ny != prevNy || subdivision != neighborhoodSubdivision
+                || radius != neighborhoodRadius || settings.wrap != neighborhoodWrap) {
+            makeContainerNeighborhood(subdivision, radius);
+        }
+        if (nx != containerIndicesX.length || ny != containerIndicesY.length || containerLayout != preparedContainerLayout) {
+            makeContainerIndices();
+        }
+
+        // init arrays
+        int containerCount = containerIndicesX[nx - 1] + containerIndicesY[ny - 1] + 1;
+        if (containers == null || containers.length != containerCount) {
+            containers = new int[containerCount];
+        }
+    }
+
+    private void makeContainerIndices() {
+        containerIndicesX = new int[nx];
+        containerIndicesY = new int[ny];
+        switch (containerLayout) {
+            case ROW_MAJOR -> {
+                for (int cx = 0; cx < nx; cx++) containerIndicesX[cx] = cx;
+                for (int cy = 0; cy < ny; cy++) containerIndicesY[cy] = cy * nx;
+            }
+            case MORTON -> {
+                // x uses the even bits, y uses the odd bits
+                for (int cx = 0; cx < nx; cx++) containerIndicesX[cx] = spreadBits(cx);
+                for (int cy = 0; cy < ny; cy++) containerIndicesY[cy] = spreadBits(cy) << 1;
+            }
+        }
+        preparedContainerLayout = containerLayout;
+    }
+
+    /**
+     * @return <code>v</code> with a zero inserted after each of its lower 15 bits
+     */
+    private static int spreadBits(int v) {
+        int result = 0;
+        for (int bit = 0; bit < 15; bit++) {
+            result |= ((v >> bit) & 1) << (2 * bit);
+        }
+        return result;
     }
 
     private void makeContainers() {
 
-        // ensure that nx and ny are still OK
-        containerSize = settings.rmax;//todo: in the future, containerSize should be independent of rmax
-        calcNxNy();//todo: only change if containerSize (or range) changed
-        //todo: (future) containerNeighborhood depends on rmax and containerSize.
-        // if (rmax changed or containerSize changed) {
-        //     makeContainerNeighborhood();
-        // }
+        prepareContainers(settings.rmax);
 
-        // init arrays
-        if (containers == null || containers.length != nx * ny) {
-            containers = new int[nx * ny];
-        }
-        Arrays.fill(containers, 0);
         if (particlesBuffer == null || particlesBuffer.length != particles.length) {
             particlesBuffer = new Particle[particles.length];
         }
 
-        // calculate container capacity
-        for (Particle p : particles) {
-            int ci = getContainerIndex(p.position);
-            containers[ci]++;
+        final Particle[] particles = this.particles;
+        final Particle[] buffer = particlesBuffer;
+        sortIntoContainers(particles.length,
+                i -> getContainerIndex(particles[i].position),
+                (i, j) -> buffer[j] = particles[i]);
+
+        // swap buffers
+        Particle[] h = this.particles;
+        this.particles = particlesBuffer;
+        particlesBuffer = h;
+
+        if (sortContainersByType) {
+            final Particle[] sorted = this.particles;
+            loadDistributor.distributeLoadEvenly(containers.length, numberOfThreads(), ci -> {
+                // insertion sort, the containers are small
+                int start = ci == 0 ? 0 : containers[ci - 1];
+                for (int i = start + 1; i < containers[ci]; i++) {
+                    Particle p = sorted[i];
+                    int j = i;
+                    for (; j > start && sorted[j - 1].type > p.type; j--) {
+                        sorted[j] = sorted[j - 1];
+                    }
+                    sorted[j] = p;
+                }
+                return true;
+            });
         }
+    }
 
-        // capacity -> index
-        int offset = 0;
-        for (int i = 0; i < containers.length; i++) {
-            int cap = containers[i];
-            containers[i] = offset;
-            offset += cap;
+    /**
+     * Same as {@link #makeContainers()}, but sorts the particle store.
+     *
+     * @param radius the distance up to which neighbors must be found via the containers
+     */
+    private void makeContainersArrays(double radius) {
+
+        prepareContainers(radius);
+
+        if (storeBuffer == null || storeBuffer.size() != store.size()) {
+            storeBuffer = new ParticleStore(store.size());
         }
 
-        // fill particles into containers
-        for (Particle p : particles) {
-            int ci = getContainerIndex(p.position);
-            int i = containers[ci];
-            particlesBuffer[i] = p;
-            containers[ci]++;  // for next access
+        final ParticleStore s = store;
+        final ParticleStore buffer = storeBuffer;
+        final double[] x = s.x;
+        final double[] y = s.y;
+        if (canSortIncrementally()) {
+            sortIncrementally(buffer);
+        } else {
+            sortIntoContainers(s.size(),
+                    i -> getContainerIndex(x[i], y[i]),
+                    (i, j) -> s.copy(i, buffer, j));
         }
+        movedStore = null;
 
         // swap buffers
-        Particle[] h = particles;
-        particles = particlesBuffer;
-        particlesBuffer = h;
+        ParticleStore h = store;
+        store = storeBuffer;
+        storeBuffer = h;
+
+        if (sortContainersByType) {
+            final ParticleStore sorted = store;
+            final int[] type = sorted.type;
+            loadDistributor.distributeLoadEvenly(containers.length, numberOfThreads(), ci -> {
+                // insertion sort, the containers are small
+                int start = ci == 0 ? 0 : containers[ci - 1];
+                for (int i = start + 1; i < containers[ci]; i++) {
+                    for (int j = i; j > start && type[j - 1] > type[j]; j--) {
+                        sorted.swap(j - 1, j);
+                    }
+                }
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Sorts the particles by their container, see {@link ContainerSorter}.
+     * Uses the containers that were counted by the last position pass if they are still valid.
+     */
+    private void sortIntoContainers(int n, ContainerSorter.ContainerIndexFunction containerIndexFunction,
+                                    ContainerSorter.ParticleMover mover) {
+
+        final int nChunks = getSortingChunkCount(n);
+
+        // were the containers already computed by the last position pass?
+        final boolean binned = binnedStore != null && binnedStore == store
+                && binnedIndicesX == containerIndicesX && binnedIndicesY == containerIndicesY
+                && containerSorter.isPrepared(n, nChunks, containers.length);
+        binnedStore = null;
+
+        containerSorter.sort(n, nChunks, containers, containerIndexFunction, mover, binned,
+                loadDistributor, numberOfThreads());
+    }
+
+    /**
+     * @return whether the last position pass recorded all movers for the current store and container layout
+     */
+    private boolean canSortIncrementally() {
+        return movedStore != null && movedStore == store
+                && movedIndicesX == containerIndicesX && movedIndicesY == containerIndicesY;
+    }
+
+    /**
+     * Same result as {@link #sortIntoContainers}, using the movers that were recorded by
+     * {@link #updatePositionsAndTrackMovers()}.
+     * Requires that {@link #containers} still describe the containers of the store before the position pass.
+     * <p>In each container, the particles that stayed are copied in runs between the movers that left,
+     * and the movers that entered are placed before or after them, depending on their previous index.
+     * This keeps the order of a stable sort.
+     *
+     * @param buffer receives the sorted particles
+     * @see #incrementalContainers
+     */
+    private void sortIncrementally(ParticleStore buffer) {
+        final ParticleStore s = store;
+        final int n = s.size();
+        final int nContainers = containers.length;
+        final int nChunks = moverCounts.length;
+
+        int moverCount = 0;
+        for (int count : moverCounts) {
+            moverCount += count;
+        }
+        if (movers == null || movers.length < moverCount) {
+            movers = new int[moverCount];
+            incomingMovers = new int[moverCount];
+        }
+        if (incomingStarts == null || incomingStarts.length != nContainers + 1) {
+            incomingStarts = new int[nContainers + 1];
+        }
+        if (containersBuffer == null || containersBuffer.length != nContainers) {
+            containersBuffer = new int[nContainers];
+        }
+        final int[] oldContainers = containers;
+        final int[] newContainers = containersBuffer;
+        final int[] movers = this.movers;
+        final int[] incomingMovers = this.incomingMovers;
+        final int[] incomingStarts = this.incomingStarts;
+
+        // new container sizes, and the movers into each container
+        for (int ci = 0; ci < nContainers; ci++) {
+            newContainers[ci] = oldContainers[ci] - (ci == 0 ? 0 : oldContainers[ci - 1]);
+        }
+        Arrays.fill(incomingStarts, 0);
+        int k = 0;
+        for (int chunk = 0; chunk < nChunks; chunk++) {
+            for (int m = 0; m < moverCounts[chunk]; m++) {
+                newContainers[moverSources[chunk][m]]--;
+                newContainers[moverTargets[chunk][m]]++;
+                incomingStarts[moverTargets[chunk][m] + 1]++;
+                // the chunks are in order, so the movers are sorted by their index
+                movers[k++] = moverIndices[chunk][m];
+            }
+        }
+        for (int ci = 1; ci < nContainers; ci++) {
+            newContainers[ci] += newContainers[ci - 1];
+            incomingStarts[ci] += incomingStarts[ci - 1];
+        }
+        incomingStarts[nContainers] = moverCount;
+        // sort the movers by their new container, keeping their order within each container
+        k = 0;
+        for (int chunk = 0; chunk < nChunks; chunk++) {
+            for (int m = 0; m < moverCounts[chunk]; m++) {
+                incomingMovers[incomingStarts[moverTargets[chunk][m]]++] = movers[k++];
+            }
+        }
+        // incomingStarts[ci] is now the end of container ci, shift it back to the start
+        System.arraycopy(incomingStarts, 0, incomingStarts, 1, nContainers);
+        incomingStarts[0] = 0;
+
+        final int totalMovers = moverCount;
+        loadDistributor.distributeLoadEvenly(nChunks, numberOfThreads(), block -> {
+            int ciStart = ContainerSorter.chunkStart(nContainers, nChunks, block);
+            int ciStop = ContainerSorter.chunkStart(nContainers, nChunks, block + 1);
+            if (ciStart == ciStop) return true;
+
+            // first mover that left a container of this block
+            int firstIndex = ciStart == 0 ? 0 : oldContainers[ciStart - 1];
+            int nextMover = Arrays.binarySearch(movers, 0, totalMovers, firstIndex);
+            if (nextMover < 0) nextMover = -nextMover - 1;
+
+            for (int ci = ciStart; ci < ciStop; ci++) {
+                int oldStart = ci == 0 ? 0 : oldContainers[ci - 1];
+                int oldStop = oldContainers[ci];
+                int j = ci == 0 ? 0 : newContainers[ci - 1];
+
+                int incoming = incomingStarts[ci];
+                int incomingStop = incomingStarts[ci + 1];
+                while (incoming < incomingStop && incomingMovers[incoming] < oldStart) {
+                    s.copy(incomingMovers[incoming++], buffer, j++);
+                }
+                int runStart = oldStart;
+                while (nextMover < totalMovers && movers[nextMover] < oldStop) {
+                    int length = movers[nextMover] - runStart;
+                    s.copyRange(runStart, buffer, j, length);
+                    j += length;
+                    runStart = movers[nextMover++] + 1;
+                }
+                s.copyRange(runStart, buffer, j, oldStop - runStart);
+                j += oldStop - runStart;
+                while (incoming < incomingStop) {
+                    s.copy(incomingMovers[incoming++], buffer, j++);
+                }
+            }
+            return true;
+        });
+
+        containersBuffer = oldContainers;
+        containers = newContainers;
+    }
+
+    private int getSortingChunkCount(int n) {
+        return ContainerSorter.chunkCount(n, numberOfThreads());
     }
 
     /**
@@ -364,18 +1680,30 @@ public class Physics {
      * @return index of the container containing <code>position</code>
      */
     private int getContainerIndex(Vector3d position) {
-        int cx = (int) (position.x / containerSize);
-        int cy = (int) (position.y / containerSize);
+        return getContainerIndex(position.x, position.y);
+    }
+
+    private int getContainerIndex(double x, double y) {
+        return getContainerIndexAt(getContainerX(x), getContainerY(y));
+    }
 
+    /**
+     * @return the index of container (cx, cy) in {@link #containers}, depending on the {@link #containerLayout}
+     */
+    private int getContainerIndexAt(int cx, int cy) {
+        return containerIndicesX[cx] + containerIndicesY[cy];
+    }
+
+    private int getContainerX(double x) {
+        int cx = (int) (x * nx);
         // for solid borders
-        if (cx == nx) {
-            cx = nx - 1;
-        }
-        if (cy == ny) {
-            cy = ny - 1;
-        }
+        return cx == nx ? nx - 1 : cx;
+    }
 
-        return cx + cy * nx;
+    private int getContainerY(double y) {
+        int cy = (int) (y * ny);
+        // for solid borders
+        return cy == ny ? ny - 1 : cy;
     }
 
     private int wrapContainerX(int cx) {
@@ -398,6 +1726,80 @@ public class Physics {
         }
     }
 
+    /**
+     * @return the index of the container at the given offset from container (cx0, cy0),
+     * or -1 if that container is outside the world.
+     */
+    private int getNeighborContainerIndex(int cx0, int cy0, int[] containerNeighbor) {
+        int cx = cx0 + containerNeighbor[0];
+        int cy = cy0 + containerNeighbor[1];
+        if (settings.wrap) {
+            cx = wrapContainerX(cx);
+            cy = wrapContainerY(cy);
+        } else {
+            if (cx < 0 || cx >= nx || cy < 0 || cy >= ny) {
+                return -1;
+            }
+        }
+        return getContainerIndexAt(cx, cy);
+    }
+
+    private int getContainerCount(int ci) {
+        int start = ci == 0 ? 0 : containers[ci - 1];
+        return containers[ci] - start;
+    }
+
+    /**
+     * Cuts the particle array into chunks that take roughly the same time in the velocity update.
+     * The work for each particle is estimated by the number of particles in its container neighborhood.
+     * Chunks always end at container boundaries.
+     *
+     * @return the number of chunks written into {@link #chunkBounds}
+     */
+    private int makeOccupancyChunks() {
+        int nChunks = Math.max(1, numberOfThreads() * loadDistributor.chunksPerThread);
+        if (containerCosts == null || containerCosts.length != containers.length) {
+            containerCosts = new long[containers.length];
+        }
+        if (chunkBounds == null || chunkBounds.length != nChunks + 1) {
+            chunkBounds = new int[nChunks + 1];
+        }
+
+        // container indices that are not used by the layout have no cost
+        Arrays.fill(containerCosts, 0);
+        long totalCost = 0;
+        for (int cy0 = 0; cy0 < ny; cy0++) {
+            for (int cx0 = 0; cx0 < nx; cx0++) {
+                int ci0 = getContainerIndexAt(cx0, cy0);
+                int count = getContainerCount(ci0);
+                long neighbors = 0;
+                if (count != 0) {
+                    for (int[] containerNeighbor : containerNeighborhood) {
+                        int ci = getNeighborContainerIndex(cx0, cy0, containerNeighbor);
+                        if (ci != -1) neighbors += getContainerCount(ci);
+                    }
+                }
+                containerCosts[ci0] = count * neighbors;
+                totalCost += containerCosts[ci0];
+            }
+        }
+
+        // cut whenever the accumulated cost reaches the next multiple of totalCost / nChunks
+        int chunk = 0;
+        chunkBounds[0] = 0;
+        long cost = 0;
+        for (int ci = 0; ci < containers.length; ci++) {
+            cost += containerCosts[ci];
+            if (cost * nChunks >= (chunk + 1) * totalCost && chunk < nChunks - 1 && containers[ci] > chunkBounds[chunk]) {
+                chunk++;
+                chunkBounds[chunk] = containers[ci];
+            }
+        }
+        chunk++;
+        chunkBounds[chunk] = containers[containers.length - 1];
+        return chunk;
+    }
+
     private void updateVelocity(int i) {
         Particle p = particles[i];
 
@@ -405,21 +1807,21 @@ public class Physics {
         double frictionFactor = Math.pow(settings.friction, 60 * settings.dt);  // is normalized to 60 fps
         p.velocity.mul(frictionFactor);
 
-        int cx0 = (int) Math.floor(p.position.x / containerSize);
-        int cy0 = (int) Math.floor(p.position.y / containerSize);
+        final double px = p.position.x;
+        final double py = p.position.y;
+        final double pz = p.position.z;
+        final double rmax = settings.rmax;
+        final double forceFactor = rmax * settings.force * settings.dt;
+        final double[] acceleration = accelerationBuffers.get();
+        final double[] matrix = matrixValues;
+        final int matrixRow = p.type * matrixSize;
+
+        int cx0 = getContainerX(px);
+        int cy0 = getContainerY(py);
 
         for (int[] containerNeighbor : containerNeighborhood) {
-            int cx = wrapContainerX(cx0 + containerNeighbor[0]);
-            int cy = wrapContainerY(cy0 + containerNeighbor[1]);
-            if (settings.wrap) {
-                cx = wrapContainerX(cx);
-                cy = wrapContainerY(cy);
-            } else {
-                if (cx < 0 || cx >= nx || cy < 0 || cy >= ny) {
-                    continue;
-                }
-            }
-            int ci = cx + cy * nx;
+            int ci = getNeighborContainerIndex(cx0, cy0, containerNeighbor);
+            if (ci == -1) continue;
 
             int start = ci == 0 ? 0 : containers[ci - 1];
             int stop = containers[ci];
@@ -429,16 +1831,26 @@ public class Physics {
 
                 Particle q = particles[j];
 
-                Vector3d relativePosition = connection(p.position, q.position);
+                double dx = q.position.x - px;
+                double dy = q.position.y - py;
+                double dz = q.position.z - pz;
+                if (settings.wrap) {
+                    // wrapping the connection gives us the shortest possible distance
+                    dx = Range.wrapConnection(dx);
+                    dy = Range.wrapConnection(dy);
+                    dz = 0;  //todo 3D
+                }
 
-                double distanceSquared = relativePosition.lengthSquared();
+                double distanceSquared = dx * dx + dy * dy + dz * dz;
                 // only check particles that are closer than or at rmax
-                if (distanceSquared != 0 && distanceSquared <= settings.rmax * settings.rmax) {
+                if (distanceSquared != 0 && distanceSquared <= rmax * rmax) {
 
-                    relativePosition.div(settings.rmax);
-                    Vector3d deltaV = accelerator.accelerate(settings.matrix.get(p.type, q.type), relativePosition);
+                    primitiveAccelerator.accelerate(matrix[matrixRow + q.type],
+                            dx / rmax, dy / rmax, dz / rmax, acceleration);
                     // apply force as acceleration
-                    p.velocity.add(deltaV.mul(settings.rmax * settings.force * settings.dt));
+                    p.velocity.x += acceleration[0] * forceFactor;
+                    p.velocity.y += acceleration[1] * forceFactor;
+                    p.velocity.z += acceleration[2] * forceFactor;
                 }
             }
         }
@@ -453,6 +1865,460 @@ public class Physics {
         ensurePosition(p.position);
     }
 
+    /**
+     * Same as {@link #updateVelocity(int)}, but for the particle store.
+     *
+     * @param out receives the new velocity, either the store itself or the {@link #motionBuffer}
+     */
+    private void updateVelocityArrays(int i, ParticleStore out) {
+        final ParticleStore s = store;
+        final double px = s.x[i];
+        final double py = s.y[i];
+        final double pz = s.z[i];
+        final int pType = s.type[i];
+
+        // apply friction before adding new velocity
+        double frictionFactor = Math.pow(settings.friction, 60 * settings.dt);  // is normalized to 60 fps
+        double vx = s.vx[i] * frictionFactor;
+        double vy = s.vy[i] * frictionFactor;
+        double vz = s.vz[i] * frictionFactor;
+
+        final double rmax = settings.rmax;
+        final double forceFactor = rmax * settings.force * settings.dt;
+        final double[] acceleration = accelerationBuffers.get();
+        final double[] matrix = matrixValues;
+        final int matrixRow = pType * matrixSize;
+
+        int cx0 = getContainerX(px);
+        int cy0 = getContainerY(py);
+
+        if (vectorKernelActive) {
+            acceleration[0] = 0;
+            acceleration[1] = 0;
+            acceleration[2] = 0;
+        }
+
+        for (int[] containerNeighbor : containerNeighborhood) {
+            int ci = getNeighborContainerIndex(cx0, cy0, containerNeighbor);
+            if (ci == -1) continue;
+
+            int start = ci == 0 ? 0 : containers[ci - 1];
+            int stop = containers[ci];
+
+            if (vectorKernelActive) {
+                // sums up the acceleration in the buffer
+                VECTOR_KERNEL.accumulate(s.x, s.y, s.type, start, stop, px, py, matrix, matrixRow,
+                        rmax, vectorKernelBeta, settings.wrap, acceleration);
+                continue;
+            }
+
+            for (int j = start; j < stop; j++) {
+                if (i == j) continue;
+
+                double dx = s.x[j] - px;
+                double dy = s.y[j] - py;
+                double dz = s.z[j] - pz;
+                if (settings.wrap) {
+                    // wrapping the connection gives us the shortest possible distance
+                    dx = Range.wrapConnection(dx);
+                    dy = Range.wrapConnection(dy);
+                    dz = 0;  //todo 3D
+                }
+
+                double distanceSquared = dx * dx + dy * dy + dz * dz;
+                // only check particles that are closer than or at rmax
+                if (distanceSquared != 0 && distanceSquared <= rmax * rmax) {
+
+                    primitiveAccelerator.accelerate(matrix[matrixRow + s.type[j]],
+                            dx / rmax, dy / rmax, dz / rmax, acceleration);
+                    // apply force as acceleration
+                    vx += acceleration[0] * forceFactor;
+                    vy += acceleration[1] * forceFactor;
+                    vz += acceleration[2] * forceFactor;
+                }
+            }
+        }
+
+        if (vectorKernelActive) {
+            vx += acceleration[0] * forceFactor;
+            vy += acceleration[1] * forceFactor;
+        }
+
+        out.vx[i] = vx;
+        out.vy[i] = vy;
+        out.vz[i] = vz;
+    }
+
+    /**
+     * @return the statistics of the neighbor lists
+     * @see #neighborListSkin
+     */
+    public NeighborList getNeighborList() {
+        return neighborList;
+    }
+
+    private boolean usesNeighborList() {
+        return store != null && neighborListSkin > 0;
+    }
+
+    /**
+     * @return whether the neighbor lists are outdated or some particle has moved further than half the skin
+     */
+    private boolean neighborListNeedsRebuild() {
+        final NeighborList l = neighborList;
+        final ParticleStore s = store;
+        if (!l.valid || l.store != s || l.size != s.size()
+                || l.rmax != settings.rmax || l.skin != neighborListSkin || l.wrap != settings.wrap) {
+            return true;
+        }
+
+        final int n = s.size();
+        final int nChunks = getSortingChunkCount(n);
+        if (chunkDisplacements == null || chunkDisplacements.length != nChunks) {
+            chunkDisplacements = new double[nChunks];
+        }
+        final double[] chunkDisplacements = this.chunkDisplacements;
+        loadDistributor.distributeLoadEvenly(nChunks, numberOfThreads(), chunk -> {
+            double max = 0;
+            int stop = ContainerSorter.chunkStart(n, nChunks, chunk + 1);
+            for (int i = ContainerSorter.chunkStart(n, nChunks, chunk); i < stop; i++) {
+                max = Math.max(max, distanceSquared(l.x0[i], l.y0[i], 0, s.x[i], s.y[i], 0));
+            }
+            chunkDisplacements[chunk] = max;
+            return true;
+        });
+
+        double halfSkin = neighborListSkin / 2;
+        for (double displacement : chunkDisplacements) {
+            if (displacement > halfSkin * halfSkin) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lists the neighbors within <code>rmax + neighborListSkin</code> of each particle.
+     * Requires that the particles were sorted into containers of at least that size.
+     */
+    private void buildNeighborList() {
+        final NeighborList l = neighborList;
+        final ParticleStore s = store;
+        final int n = s.size();
+        final double radius = settings.rmax + neighborListSkin;
+
+        if (l.offsets.length != n + 1) {
+            l.offsets = new int[n + 1];
+        }
+        final int[] offsets = l.offsets;
+
+        // count neighbors
+        loadDistributor.distributeLoadEvenly(n, numberOfThreads(), i -> {
+            offsets[i + 1] = collectNeighbors(i, radius, null, 0);
+            return true;
+        });
+
+        // count -> index
+        offsets[0] = 0;
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+
+        // fill in neighbors
+        if (l.neighbors.length < offsets[n]) {
+            l.neighbors = new int[offsets[n] + offsets[n] / 8];  // leave room for the lists to grow
+        }
+        final int[] neighbors = l.neighbors;
+        neighborsWithinRmax.reset();
+        loadDistributor.distributeLoadEvenly(n, numberOfThreads(), i -> {
+            neighborsWithinRmax.add(collectNeighbors(i, radius, neighbors, offsets[i]));
+            return true;
+        });
+
+        if (l.x0.length != n) {
+            l.x0 = new double[n];
+            l.y0 = new double[n];
+        }
+        System.arraycopy(s.x, 0, l.x0, 0, n);
+        System.arraycopy(s.y, 0, l.y0, 0, n);
+
+        l.store = s;
+        l.size = n;
+        l.rmax = settings.rmax;
+        l.skin = neighborListSkin;
+        l.wrap = settings.wrap;
+        l.valid = true;
+        l.countBuild(neighborsWithinRmax.sum());
+    }
+
+    /**
+     * Finds all particles within <code>radius</code> of particle <code>i</code> via the containers.
+     *
+     * @param dest where to write the indices of the neighbors, or <code>null</code> to only count them
+     * @return the number of neighbors if <code>dest == null</code>,
+     * otherwise the number of neighbors that are within <code>rmax</code>
+     */
+    private int collectNeighbors(int i, double radius, int[] dest, int destStart) {
+        final ParticleStore s = store;
+        final double px = s.x[i];
+        final double py = s.y[i];
+        final double pz = s.z[i];
+        final double rmax = settings.rmax;
+
+        int count = 0;
+        int withinRmax = 0;
+
+        int cx0 = getContainerX(px);
+        int cy0 = getContainerY(py);
+
+        for (int[] containerNeighbor : containerNeighborhood) {
+            int ci = getNeighborContainerIndex(cx0, cy0, containerNeighbor);
+            if (ci == -1) continue;
+
+            int start = ci == 0 ? 0 : containers[ci - 1];
+            int stop = containers[ci];
+
+            for (int j = start; j < stop; j++) {
+                if (i == j) continue;
+
+                double distanceSquared = distanceSquared(px, py, pz, s.x[j], s.y[j], s.z[j]);
+                if (distanceSquared <= radius * radius) {
+                    if (dest != null) {
+                        dest[destStart + count] = j;
+                        if (distanceSquared <= rmax * rmax) withinRmax++;
+                    }
+                    count++;
+                }
+            }
+        }
+
+        return dest == null ? count : withinRmax;
+    }
+
+    private void updateVelocitiesNeighborList() {
+        distributeParticleLoad(i -> {
+            if (!updateThreadsShouldRun.get()) return false;
+            updateVelocityNeighborList(i, store);
+            return true;
+        });
+    }
+
+    /**
+     * Same as {@link #makeOccupancyChunks()}, but the work for each particle is the length of its neighbor list.
+     *
+     * @return the number of chunks written into {@link #chunkBounds}
+     */
+    private int makeNeighborListChunks() {
+        final int n = store.size();
+        int nChunks = Math.max(1, Math.min(n, numberOfThreads() * loadDistributor.chunksPerThread));
+        if (chunkBounds == null || chunkBounds.length != nChunks + 1) {
+            chunkBounds = new int[nChunks + 1];
+        }
+        final int[] offsets = neighborList.offsets;
+        long total = offsets[n];
+        for (int c = 0; c <= nChunks; c++) {
+            int target = (int) (total * c / nChunks);
+            int bound = Arrays.binarySearch(offsets, 0, n + 1, target);
+            if (bound < 0) bound = -bound - 1;
+            // binarySearch may return any of several equal entries, so the bounds must be kept in order
+            chunkBounds[c] = c == 0 ? 0 : Math.max(chunkBounds[c - 1], Math.min(bound, n));
+        }
+        chunkBounds[nChunks] = n;
+        return nChunks;
+    }
+
+    /**
+     * Same as {@link #updateVelocityArrays(int, ParticleStore)}, but only checks the particles in the neighbor list.
+     */
+    private void updateVelocityNeighborList(int i, ParticleStore out) {
+        final ParticleStore s = store;
+        final double px = s.x[i];
+        final double py = s.y[i];
+        final double pz = s.z[i];
+        final int pType = s.type[i];
+
+        // apply friction before adding new velocity
+        double frictionFactor = Math.pow(settings.friction, 60 * settings.dt);  // is normalized to 60 fps
+        double vx = s.vx[i] * frictionFactor;
+        double vy = s.vy[i] * frictionFactor;
+        double vz = s.vz[i] * frictionFactor;
+
+        final double rmax = settings.rmax;
+        final double forceFactor = rmax * settings.force * settings.dt;
+        final double[] acceleration = accelerationBuffers.get();
+        final int[] neighbors = neighborList.neighbors;
+        final double[] matrix = matrixValues;
+        final int matrixRow = pType * matrixSize;
+
+        final int stop = neighborList.offsets[i + 1];
+        for (int k = neighborList.offsets[i]; k < stop; k++) {
+            int j = neighbors[k];
+
+            double dx = s.x[j] - px;
+            double dy = s.y[j] - py;
+            double dz = s.z[j] - pz;
+            if (settings.wrap) {
+                // wrapping the connection gives us the shortest possible distance
+                dx = Range.wrapConnection(dx);
+                dy = Range.wrapConnection(dy);
+                dz = 0;  //todo 3D
+            }
+
+            double distanceSquared = dx * dx + dy * dy + dz * dz;
+            // only check particles that are closer than or at rmax
+            if (distanceSquared != 0 && distanceSquared <= rmax * rmax) {
+
+                primitiveAccelerator.accelerate(matrix[matrixRow + s.type[j]],
+                        dx / rmax, dy / rmax, dz / rmax, acceleration);
+                // apply force as acceleration
+                vx += acceleration[0] * forceFactor;
+                vy += acceleration[1] * forceFactor;
+                vz += acceleration[2] * forceFactor;
+            }
+        }
+
+        out.vx[i] = vx;
+        out.vy[i] = vy;
+        out.vz[i] = vz;
+    }
+
+    /**
+     * Same result as {@link #updateVelocityArrays(int, ParticleStore)} for all particles,
+     * but each pair of particles is only looked at once.
+     * <p>Each container is paired with the containers in {@link #symmetricNeighborhood}
+     * (and with itself), and both particles of each pair within <code>rmax</code> are accelerated.
+     * To avoid that two threads write to the velocity of the same particle,
+     * the container rows are grouped into bands that are at least as high as the neighborhood reaches up.
+     * First, all even bands are processed in parallel, then all odd bands.
+     */
+    private void updateVelocitiesSymmetric() {
+        final ParticleStore s = store;
+        final double frictionFactor = Math.pow(settings.friction, 60 * settings.dt);  // is normalized to 60 fps
+
+        // apply friction before adding new velocity
+        loadDistributor.distributeLoadEvenly(s.size(), numberOfThreads(), i -> {
+            s.vx[i] *= frictionFactor;
+            s.vy[i] *= frictionFactor;
+            s.vz[i] *= frictionFactor;
+            return true;
+        });
+
+        final int nBands = bandStarts.length - 1;
+        for (int color = 0; color < 2; color++) {
+            final int firstBand = color;
+            loadDistributor.distributeLoadEvenly(nBands / 2, numberOfThreads(), b -> {
+                int band = 2 * b + firstBand;
+                for (int cy0 = bandStarts[band]; cy0 < bandStarts[band + 1]; cy0++) {
+                    if (!updateThreadsShouldRun.get()) return false;
+                    for (int cx0 = 0; cx0 < nx; cx0++) {
+                        accelerateContainerPairs(cx0, cy0);
+                    }
+                }
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Accelerates all pairs of particles within <code>rmax</code> where one particle is in container (cx0, cy0)
+     * and the other one is in the same container or in one of the containers in {@link #symmetricNeighborhood}.
+     */
+    private void accelerateContainerPairs(int cx0, int cy0) {
+        final ParticleStore s = store;
+        final double rmax = settings.rmax;
+        final double forceFactor = rmax * settings.force * settings.dt;
+        final double[] acceleration = accelerationBuffers.get();
+        final double[] matrix = matrixValues;
+        final int matrixSize = this.matrixSize;
+        final boolean wrap = settings.wrap;
+
+        int ci0 = getContainerIndexAt(cx0, cy0);
+        int start0 = ci0 == 0 ? 0 : containers[ci0 - 1];
+        int stop0 = containers[ci0];
+        if (start0 == stop0) return;
+
+        for (int k = -1; k < symmetricNeighborhood.length; k++) {
+            int ci;
+            if (k == -1) {
+                ci = ci0;
+            } else {
+                ci = getNeighborContainerIndex(cx0, cy0, symmetricNeighborhood[k]);
+                if (ci == -1) continue;
+            }
+            int start = ci == 0 ? 0 : containers[ci - 1];
+            int stop = containers[ci];
+
+            for (int i = start0; i < stop0; i++) {
+                final double px = s.x[i];
+                final double py = s.y[i];
+                final double pz = s.z[i];
+                final int pType = s.type[i];
+                final int matrixRow = pType * matrixSize;
+                double vx = 0;
+                double vy = 0;
+                double vz = 0;
+
+                // within the same container, only look at each pair once
+                for (int j = (ci == ci0 ? i + 1 : start); j < stop; j++) {
+
+                    double dx = s.x[j] - px;
+                    double dy = s.y[j] - py;
+                    double dz = s.z[j] - pz;
+                    if (wrap) {
+                        // wrapping the connection gives us the shortest possible distance
+                        dx = Range.wrapConnection(dx);
+                        dy = Range.wrapConnection(dy);
+                        dz = 0;  //todo 3D
+                    }
+
+                    double distanceSquared = dx * dx + dy * dy + dz * dz;
+                    // only check particles that are closer than or at rmax
+                    if (distanceSquared != 0 && distanceSquared <= rmax * rmax) {
+                        dx /= rmax;
+                        dy /= rmax;
+                        dz /= rmax;
+                        int qType = s.type[j];
+
+                        primitiveAccelerator.accelerate(matrix[matrixRow + qType], dx, dy, dz, acceleration);
+                        vx += acceleration[0] * forceFactor;
+                        vy += acceleration[1] * forceFactor;
+                        vz += acceleration[2] * forceFactor;
+
+                        primitiveAccelerator.accelerate(matrix[qType * matrixSize + pType], -dx, -dy, -dz, acceleration);
+                        s.vx[j] += acceleration[0] * forceFactor;
+                        s.vy[j] += acceleration[1] * forceFactor;
+                        s.vz[j] += acceleration[2] * forceFactor;
+                    }
+                }
+
+                s.vx[i] += vx;
+                s.vy[i] += vy;
+                s.vz[i] += vz;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #updatePosition(int)}, but for the particle store.
+     *
+     * @param from contains the old position
+     * @param out  contains the new velocity and receives the new position (may be the same as <code>from</code>)
+     */
+    private void updatePositionArrays(int i, ParticleStore from, ParticleStore out) {
+
+        // pos += vel * dt
+        double x = from.x[i] + out.vx[i] * settings.dt;
+        double y = from.y[i] + out.vy[i] * settings.dt;
+        double z = from.z[i] + out.vz[i] * settings.dt;
+
+        if (settings.wrap) {
+            out.x[i] = Range.wrap(x);
+            out.y[i] = Range.wrap(y);
+        } else {
+            out.x[i] = Range.clamp(x);
+            out.y[i] = Range.clamp(y);
+        }
+        out.z[i] = 0;  //todo 3D
+    }
+
     /**
      * Calculates the shortest connection between two positions.
      * If <code>settings.wrap == true</code>, the connection might
@@ -479,7 +2345,23 @@ public class Physics {
      * @see #connection(Vector3d, Vector3d)
      */
     public double distance(Vector3d pos1, Vector3d pos2) {
-        return connection(pos1, pos2).length();
+        return Math.sqrt(distanceSquared(pos1.x, pos1.y, pos1.z, pos2.x, pos2.y, pos2.z));
+    }
+
+    /**
+     * Allocation-free variant of {@link #distance(Vector3d, Vector3d)}.
+     * @return the squared shortest possible distance between two points
+     */
+    double distanceSquared(double x1, double y1, double z1, double x2, double y2, double z2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double dz = z2 - z1;
+        if (settings.wrap) {
+            dx = Range.wrapConnection(dx);
+            dy = Range.wrapConnection(dy);
+            dz = 0;  //todo 3D
+        }
+        return dx * dx + dy * dy + dz * dz;
     }
 
     /**
@@ -511,6 +2393,10 @@ public class Physics {
     // HANDY OPERATIONS:
 
     public void setTypes() {
+        if (store != null) {
+            storeControl.setTypes();
+            return;
+        }
         Arrays.stream(particles).forEach(p -> setType(p));
     }
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+package com.particle_life;
+
+import java.util.Map;
+
+/**
+ * Measurements of a single {@link Physics#update()}, see {@link Physics#collectMetrics}.
+ */
+public class PhysicsMetrics {
+
+    /**
+     * Time spent sorting the particles into containers (and building the neighbor lists, if used).
+     */
+    public long containerNanos;
+    public long velocityNanos;
+    public long positionNanos;
+    /**
+     * Sum of the three phases.
+     * Doesn't include the time for collecting the metrics.
+     */
+    public long updateNanos;
+
+    /**
+     * The number of threads that the update was distributed on, see {@link Physics#preferredNumberOfThreads}.
+     */
+    public int threads;
+    /**
+     * For each thread, the time it spent processing chunks of work in all three phases.
+     */
+    public Map<String, Long> busyNanosPerThread;
+    /**
+     * Sum of {@link #busyNanosPerThread}.
+     */
+    public long busyNanos;
+
+    /**
+     * Pairs of particles whose distance was computed in the velocity update.
+     */
+    public long candidatePairs;
+    /**
+     * Candidate pairs that were closer than rmax.
+     */
+    public long acceptedPairs;
+
+    /**
+     * The largest number of particles in a container.
+     */
+    public int maxOccupancy;
+    /**
+     * <code>occupancyHistogram[0]</code> is the number of empty containers,
+     * <code>occupancyHistogram[k]</code> is the number of containers with
+     * 2<sup>k - 1</sup> to 2<sup>k</sup> - 1 particles.
+     */
+    public long[] occupancyHistogram;
+
+    /**
+     * @return the fraction of time the threads spent waiting, between 0 and 1
+     */
+    public double getIdleFraction() {
+        long available = threads * updateNanos;
+        return available == 0 ? 0 : Math.max(0, 1 - busyNanos / (double) available);
+    }
+
+    /**
+     * @return the fraction of candidate pairs that were closer than rmax, between 0 and 1
+     */
+    public double getAcceptanceRate() {
+        return candidatePairs == 0 ? 0 : acceptedPairs / (double) candidatePairs;
+    }
+}
@@ -0,0 +1,54 @@
+package com.particle_life;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event that is committed for each {@link Physics#update()} while it is enabled in a recording,
+ * regardless of {@link Physics#collectMetrics}, see {@link PhysicsMetrics}.
+ */
+@Name("com.particle_life.PhysicsUpdate")
+@Label("Physics Update")
+@Category("Particle Life")
+@Description("Phases and pair statistics of a Physics update")
+class PhysicsUpdateEvent extends jdk.jfr.Event {
+
+    @Label("Particles")
+    int particles;
+
+    @Label("Threads")
+    int threads;
+
+    @Label("Container Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long containerNanos;
+
+    @Label("Velocity Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long velocityNanos;
+
+    @Label("Position Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long positionNanos;
+
+    @Label("Busy Time")
+    @Description("Time all threads spent processing chunks")
+    @Timespan(Timespan.NANOSECONDS)
+    long busyNanos;
+
+    @Label("Candidate Pairs")
+    long candidatePairs;
+
+    @Label("Accepted Pairs")
+    long acceptedPairs;
+
+    @Label("Max Occupancy")
+    int maxOccupancy;
+
+    @Label("Occupancy Histogram")
+    @Description("Number of containers with 0, 1, 2-3, 4-7, ... particles")
+    String occupancyHistogram;
+}
@@ -0,0 +1,25 @@
+package com.particle_life;
+
+/**
+ * Allocation-free variant of {@link Accelerator}.
+ * <p>If the {@link Physics#accelerator} also implements this interface,
+ * {@link Physics} will call {@link #accelerate(double, double, double, double, double[])}
+ * instead of {@link Accelerator#accelerate(double, org.joml.Vector3d)}.
+ * All other accelerators are bridged with an {@link AcceleratorAdapter}.
+ */
+public interface PrimitiveAccelerator {
+
+    /**
+     * Implementations must not allocate objects and must be safe to call from multiple threads.
+     *
+     * @param a   The entry of the matrix at index (i, j), where i is the type of the regarded particle and j the type of the other particle.
+     * @param x   x-coordinate of the neighbor's position relative to the particle's own position, divided by rmax
+     * @param y   y-coordinate of the neighbor's position relative to the particle's own position, divided by rmax
+     * @param z   z-coordinate of the neighbor's position relative to the particle's own position, divided by rmax
+     * @param out Caller-owned buffer of length 3.
+     *            The acceleration that should be applied to the particle's velocity must be written into
+     *            <code>out[0]</code>, <code>out[1]</code> and <code>out[2]</code>.
+     *            This is also interpreted as relative to rmax, that is, it will be scaled by rmax before it is applied to the particle.
+     */
+    void accelerate(double a, double x, double y, double z, double[] out);
+}
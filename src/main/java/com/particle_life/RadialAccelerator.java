@@ -0,0 +1,38 @@
+package com.particle_life;
+
+import org.joml.Vector3d;
+
+/**
+ * An accelerator whose acceleration always points along the connection between the two particles
+ * and whose magnitude only depends on the matrix entry and the distance.
+ * <p>Implementations only need to implement {@link #force(double, double)}.
+ *
+ * @see TabulatedAccelerator
+ */
+public interface RadialAccelerator extends Accelerator, PrimitiveAccelerator {
+
+    /**
+     * Must be safe to call from multiple threads.
+     *
+     * @param a The entry of the matrix at index (i, j), where i is the type of the regarded particle and j the type of the other particle.
+     * @param r The distance between the particles divided by rmax, in (0, 1].
+     * @return The magnitude of the acceleration, relative to rmax.
+     *         Positive values accelerate the particle towards the other particle.
+     */
+    double force(double a, double r);
+
+    @Override
+    default Vector3d accelerate(double a, Vector3d pos) {
+        double r = pos.length();
+        return pos.mul(force(a, r) / r);
+    }
+
+    @Override
+    default void accelerate(double a, double x, double y, double z, double[] out) {
+        double r = Math.sqrt(x * x + y * y + z * z);
+        double f = force(a, r) / r;
+        out[0] = x * f;
+        out[1] = y * f;
+        out[2] = z * f;
+    }
+}
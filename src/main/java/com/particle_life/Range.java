@@ -43,7 +43,7 @@ class Range {
         x.z = 0;  //todo 3D
     }
 
-    private static double wrap(double value) {
+    static double wrap(double value) {
         if (value < 0) {
             do {
                 value += 1;
@@ -71,7 +71,7 @@ class Range {
         x.z = 0;  //todo 3D
     }
 
-    private static double wrapConnection(double value) {
+    static double wrapConnection(double value) {
         if (value < -0.5) {
             return value + 1;
         } else if (value >= 0.5) {
@@ -86,7 +86,7 @@ class Range {
         x.z = 0;  // todo 3D
     }
 
-    private static double clamp(double val) {
+    static double clamp(double val) {
         if (val < 0) {
             return 0;
         } else if (val > 1) {
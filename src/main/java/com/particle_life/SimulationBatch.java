@@ -0,0 +1,216 @@
+package com.particle_life;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Runs many {@link Physics} simulations on one shared thread pool, e.g. to search for interesting matrices.
+ * <p>Example:
+ * <pre>
+ * try (SimulationBatch batch = new SimulationBatch()) {
+ *     for (int k = 0; k &lt; 1000; k++) {
+ *         Physics physics = new Physics(new ParticleLifeAccelerator());
+ *         physics.setParticleCount(2000);
+ *         batch.add(physics, 500);
+ *     }
+ *     List&lt;SimulationBatch.Result&gt; results = batch.run(physics -&gt; score(physics), null);
+ * }
+ * </pre>
+ * <p>Small simulations (fewer than {@link #largeSimulationThreshold} particles) are updated on a single thread each,
+ * and the pool runs many of them at once, largest first.
+ * Large simulations are then run one after another, each using all threads of the pool.
+ * This way, the threads are never oversubscribed and small simulations don't pay for the fork/join
+ * overhead of distributing a few particles.
+ * <p>The {@link Physics#preferredNumberOfThreads} of the simulations are overwritten accordingly.
+ * Simulations with {@link Physics#collectMetrics} enabled only measure their own updates,
+ * even though they share the pool with the other simulations.
+ * The simulations keep using the shared pool after the batch has run,
+ * so they should not be updated anymore after the batch was shut down.
+ */
+public class SimulationBatch implements AutoCloseable {
+
+    /**
+     * Rates a simulation after it has run for its number of steps.
+     */
+    public interface Scorer {
+        double score(Physics physics);
+    }
+
+    /**
+     * Is notified whenever a simulation has finished.
+     * Is called from the worker threads, but never from two threads at once.
+     */
+    public interface ResultListener {
+        void onResult(Result result);
+    }
+
+    /**
+     * @param index  the index that was returned by {@link #add(Physics, int)}
+     * @param steps  how many steps were run, less than the step budget if the batch was {@link #stop() stopped}
+     * @param score  <code>NaN</code> if there was no {@link Scorer}
+     * @param nanos  how long the steps took, excluding the scoring
+     */
+    public record Result(int index, Physics physics, int steps, double score, long nanos) {
+    }
+
+    private record Job(int index, Physics physics, int steps) {
+        long cost() {
+            return (long) physics.getParticleCount() * steps;
+        }
+    }
+
+    /**
+     * Simulations with at least this many particles are distributed on all threads,
+     * smaller simulations run on a single thread each.
+     */
+    public int largeSimulationThreshold = 20000;
+
+    private final int threads;
+    private final LoadDistributor loadDistributor;
+    private final List<Job> jobs = new ArrayList<>();
+    private int nextIndex = 0;
+    private int[] chunkBounds = new int[1];
+    private volatile boolean stopped = false;
+
+    /**
+     * Uses one thread per available processor.
+     */
+    public SimulationBatch() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads the size of the shared thread pool
+     */
+    public SimulationBatch(int threads) {
+        this.threads = Math.max(1, threads);
+        loadDistributor = new LoadDistributor(this.threads);
+    }
+
+    /**
+     * Adds a simulation to the next {@link #run(Scorer, ResultListener)}.
+     * From now on, the simulation uses the shared thread pool.
+     *
+     * @param steps the step budget, i.e. how often {@link Physics#update()} is called
+     * @return the index of the simulation, see {@link Result#index}
+     */
+    public synchronized int add(Physics physics, int steps) {
+        physics.shareLoadDistributor(loadDistributor);
+        Job job = new Job(nextIndex++, physics, steps);
+        jobs.add(job);
+        return job.index();
+    }
+
+    /**
+     * Runs all simulations that were added since the last run for their number of steps.
+     * Blocks until all have finished.
+     *
+     * @param scorer   is called for each simulation after its last step (on a worker thread), may be <code>null</code>
+     * @param listener is notified about each finished simulation, may be <code>null</code>
+     * @return the results in the order in which the simulations were added
+     */
+    public List<Result> run(Scorer scorer, ResultListener listener) {
+        final Job[] batch;
+        synchronized (this) {
+            batch = jobs.toArray(new Job[0]);
+            jobs.clear();
+        }
+        stopped = false;
+
+        // largest first, so that the last running simulations are short
+        Arrays.sort(batch, Comparator.comparingLong(Job::cost).reversed());
+        int nSmall = 0;
+        while (nSmall < batch.length && batch[batch.length - 1 - nSmall].physics().getParticleCount() < largeSimulationThreshold) {
+            nSmall++;
+        }
+        final int firstSmall = batch.length - nSmall;
+
+        final Result[] results = new Result[batch.length];
+        final Object listenerLock = new Object();
+
+        // small simulations: one chunk (and one thread) per simulation
+        if (chunkBounds.length < nSmall + 1) {
+            chunkBounds = new int[nSmall + 1];
+        }
+        final int[] chunkBounds = this.chunkBounds;
+        for (int c = 0; c <= nSmall; c++) {
+            chunkBounds[c] = firstSmall + c;
+        }
+        loadDistributor.distributeLoad(chunkBounds, nSmall, threads, k -> {
+            results[k] = runJob(batch[k], 1, scorer);
+            notify(listener, listenerLock, results[k]);
+            return true;
+        });
+
+        // large simulations: one after another, on all threads
+        for (int k = 0; k < firstSmall; k++) {
+            results[k] = runJob(batch[k], threads, scorer);
+            notify(listener, listenerLock, results[k]);
+        }
+
+        Arrays.sort(results, Comparator.comparingInt(Result::index));
+        return Arrays.asList(results);
+    }
+
+    private Result runJob(Job job, int threads, Scorer scorer) {
+        Physics physics = job.physics();
+        physics.preferredNumberOfThreads = threads;
+        long startTime = System.nanoTime();
+        int step = 0;
+        while (step < job.steps() && !stopped) {
+            physics.update();
+            step++;
+        }
+        long nanos = System.nanoTime() - startTime;
+        double score = scorer != null ? scorer.score(physics) : Double.NaN;
+        return new Result(job.index(), physics, step, score, nanos);
+    }
+
+    private static void notify(ResultListener listener, Object lock, Result result) {
+        if (listener == null) return;
+        synchronized (lock) {
+            listener.onResult(result);
+        }
+    }
+
+    /**
+     * Makes the current {@link #run(Scorer, ResultListener)} return as soon as possible.
+     * The remaining simulations stop after their current step and are still scored.
+     * Can be called from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return the size of the shared thread pool
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Shuts down the shared thread pool.
+     * Blocks until all tasks have completed execution.
+     *
+     * @param timeoutMilliseconds how long to wait for the threads to finish their execution (in milliseconds)
+     * @return {@code true} if all tasks terminated and {@code false} if the timeout elapsed before termination
+     */
+    public boolean shutdown(long timeoutMilliseconds) throws InterruptedException {
+        return loadDistributor.shutdown(timeoutMilliseconds);
+    }
+
+    /**
+     * Shuts down the shared thread pool, waiting at most one second for running tasks.
+     */
+    @Override
+    public void close() {
+        try {
+            shutdown(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.particle_life;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes a copy of the particles after each {@link Physics#update()},
+ * so that other threads (e.g. renderers) can read a complete frame while the next update is running.
+ * <p>Example:
+ * <pre>
+ * SnapshotPublisher publisher = new SnapshotPublisher(false);
+ * physics.addUpdateListener(publisher);
+ *
+ * // in any other thread:
+ * try (SnapshotPublisher.Snapshot snapshot = publisher.acquire()) {
+ *     if (snapshot != null) {
+ *         // read snapshot.x, snapshot.y, snapshot.type ...
+ *     }
+ * }
+ * </pre>
+ * <p>The snapshots are kept in a fixed number of buffers (three by default).
+ * After each update, the particles are copied into a buffer that is neither the latest snapshot
+ * nor acquired by any reader, and that buffer becomes the latest snapshot.
+ * Readers never wait and never block the update.
+ * If readers hold all other buffers, the update is not published ({@link #getSkippedUpdates()}).
+ * Apart from when the number of particles grows, nothing is allocated.
+ */
+public class SnapshotPublisher implements Physics.UpdateListener {
+
+    /**
+     * A read-only copy of the particles.
+     * The arrays may be longer than {@link #size} and must not be modified.
+     * Call {@link #close()} when done reading, after which the arrays must not be read anymore.
+     */
+    public static final class Snapshot implements AutoCloseable {
+        /**
+         * The number of readers, or -1 while the publisher writes into this snapshot.
+         */
+        private final AtomicInteger readers = new AtomicInteger(0);
+
+        /**
+         * Counts the published updates, starting with 0.
+         */
+        public long index = -1;
+        public int size = 0;
+        public double[] x = new double[0];
+        public double[] y = new double[0];
+        public double[] z = new double[0];
+        public int[] type = new int[0];
+        /**
+         * <code>null</code> if the publisher doesn't copy velocities.
+         */
+        public double[] vx = null;
+        public double[] vy = null;
+        public double[] vz = null;
+
+        private Snapshot() {
+        }
+
+        private void copy(Physics physics, boolean copyVelocities) {
+            final ParticleStore s = physics.getParticleStore();
+            final int n = physics.getParticleCount();
+            if (x.length < n) {
+                x = new double[n];
+                y = new double[n];
+                z = new double[n];
+                type = new int[n];
+            }
+            if (copyVelocities && (vx == null || vx.length < n)) {
+                vx = new double[n];
+                vy = new double[n];
+                vz = new double[n];
+            }
+
+            if (s != null) {
+                System.arraycopy(s.x, 0, x, 0, n);
+                System.arraycopy(s.y, 0, y, 0, n);
+                System.arraycopy(s.z, 0, z, 0, n);
+                System.arraycopy(s.type, 0, type, 0, n);
+                if (copyVelocities) {
+                    System.arraycopy(s.vx, 0, vx, 0, n);
+                    System.arraycopy(s.vy, 0, vy, 0, n);
+                    System.arraycopy(s.vz, 0, vz, 0, n);
+                }
+            } else {
+                final Particle[] particles = physics.particles;
+                for (int i = 0; i < n; i++) {
+                    Particle p = particles[i];
+                    x[i] = p.position.x;
+                    y[i] = p.position.y;
+                    z[i] = p.position.z;
+                    type[i] = p.type;
+                    if (copyVelocities) {
+                        vx[i] = p.velocity.x;
+                        vy[i] = p.velocity.y;
+                        vz[i] = p.velocity.z;
+                    }
+                }
+            }
+            size = n;
+        }
+
+        /**
+         * Releases this snapshot, so that the publisher can re-use it.
+         * Must be called exactly once for each {@link #acquire()} that returned this snapshot.
+         */
+        @Override
+        public void close() {
+            readers.decrementAndGet();
+        }
+    }
+
+    private final boolean copyVelocities;
+    private final Snapshot[] snapshots;
+    private final AtomicReference<Snapshot> latest = new AtomicReference<>(null);
+
+    private long publishedUpdates = 0;
+    private volatile long skippedUpdates = 0;
+
+    /**
+     * Uses three buffers.
+     *
+     * @param copyVelocities whether the snapshots contain the velocities
+     */
+    public SnapshotPublisher(boolean copyVelocities) {
+        this(copyVelocities, 3);
+    }
+
+    /**
+     * @param copyVelocities whether the snapshots contain the velocities
+     * @param bufferCount    at least 2. With more buffers, more readers can hold on to
+     *                       older snapshots before an update can't be published.
+     */
+    public SnapshotPublisher(boolean copyVelocities, int bufferCount) {
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("Need at least 2 buffers.");
+        }
+        this.copyVelocities = copyVelocities;
+        snapshots = new Snapshot[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            snapshots[i] = new Snapshot();
+        }
+    }
+
+    @Override
+    public void onUpdate(Physics physics) {
+        publish(physics);
+    }
+
+    /**
+     * Copies the current state of the particles into a free buffer and publishes it.
+     * Is called automatically after each update if this is an {@link Physics.UpdateListener},
+     * but can also be called directly, e.g. to publish the initial state.
+     * Must not be called from multiple threads at once, or while <code>physics</code> is being updated.
+     *
+     * @return whether the state was published
+     */
+    public boolean publish(Physics physics) {
+        final Snapshot current = latest.get();
+        Snapshot free = null;
+        for (Snapshot snapshot : snapshots) {
+            if (snapshot != current && snapshot.readers.compareAndSet(0, -1)) {
+                free = snapshot;
+                break;
+            }
+        }
+        if (free == null) {
+            skippedUpdates++;
+            return false;
+        }
+
+        free.copy(physics, copyVelocities);
+        free.index = publishedUpdates++;
+        free.readers.set(0);
+        latest.set(free);
+        return true;
+    }
+
+    /**
+     * Returns the latest published snapshot.
+     * Never blocks. Can be called from any number of threads at once.
+     * The snapshot must be released with {@link Snapshot#close()}, e.g. in a try-with-resources statement.
+     *
+     * @return the latest snapshot, or <code>null</code> if nothing was published yet
+     */
+    public Snapshot acquire() {
+        while (true) {
+            Snapshot snapshot = latest.get();
+            if (snapshot == null) return null;
+
+            int readers = snapshot.readers.get();
+            // the publisher may have started writing into it after it was replaced by a newer snapshot
+            if (readers < 0 || !snapshot.readers.compareAndSet(readers, readers + 1)) continue;
+
+            // as long as it is still the latest snapshot, the publisher hasn't written into it
+            if (latest.get() == snapshot) return snapshot;
+            snapshot.readers.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return how many updates were not published because all buffers were in use
+     */
+    public long getSkippedUpdates() {
+        return skippedUpdates;
+    }
+}
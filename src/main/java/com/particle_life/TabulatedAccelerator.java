@@ -0,0 +1,157 @@
+package com.particle_life;
+
+/**
+ * Caches the force curves of a {@link RadialAccelerator} in a lookup table.
+ * <p>This is useful for accelerators that are expensive to evaluate, e.g. because they call
+ * {@link Math#exp(double)} or {@link Math#pow(double, double)}.
+ * The table samples the force at <code>rSamples</code> distances in [0, 1]
+ * for <code>aSamples</code> matrix entries between the smallest and the largest entry of the matrix.
+ * Lookups interpolate linearly between the samples in both directions.
+ * Force shapes that are linear in the matrix entry (like {@link ParticleLifeAccelerator})
+ * are therefore only approximated in the distance.
+ * <p>If this is the {@link Physics#accelerator}, {@link Physics} rebuilds the table whenever the range of
+ * the matrix entries changes. Call {@link #invalidate()} if the wrapped accelerator changed.
+ * <p>After each rebuild, the interpolation error is measured halfway between the samples,
+ * see {@link #getMaxError()} and {@link #getMaxRelativeError()}.
+ */
+public class TabulatedAccelerator implements RadialAccelerator {
+
+    public final RadialAccelerator accelerator;
+    private final int aSamples;
+    private final int rSamples;
+
+    // the table, is replaced as a whole when rebuilt
+    private Table table;
+
+    private record Table(double aMin, double aMax, double aScale, double[] values) {
+    }
+
+    private boolean valid = false;
+    private double maxError = 0;
+    private double maxRelativeError = 0;
+
+    /**
+     * Uses 33 samples for the matrix entries and 1024 samples for the distance.
+     */
+    public TabulatedAccelerator(RadialAccelerator accelerator) {
+        this(accelerator, 33, 1024);
+    }
+
+    /**
+     * @param aSamples how many matrix entries are sampled, at least 2
+     * @param rSamples how many distances are sampled, at least 2
+     */
+    public TabulatedAccelerator(RadialAccelerator accelerator, int aSamples, int rSamples) {
+        if (aSamples < 2 || rSamples < 2) {
+            throw new IllegalArgumentException("Need at least 2 samples in each direction.");
+        }
+        this.accelerator = accelerator;
+        this.aSamples = aSamples;
+        this.rSamples = rSamples;
+        build(-1, 1);
+        valid = false;
+    }
+
+    /**
+     * Makes sure that the table covers all entries of the given matrix.
+     * This is called by {@link Physics} at the beginning of each update.
+     */
+    public void prepare(Matrix matrix) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        int size = matrix.size();
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                double a = matrix.get(i, j);
+                min = Math.min(min, a);
+                max = Math.max(max, a);
+            }
+        }
+        if (size == 0) {
+            min = -1;
+            max = 1;
+        }
+        if (max - min < 1e-12) {
+            max = min + 1;  // a single value, but the table needs a range
+        }
+        if (!valid || min != table.aMin || max != table.aMax) {
+            build(min, max);
+            valid = true;
+        }
+    }
+
+    /**
+     * The table will be rebuilt in the next call to {@link #prepare(Matrix)}.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    private void build(double aMin, double aMax) {
+        double[] values = new double[aSamples * rSamples];
+        for (int ia = 0; ia < aSamples; ia++) {
+            double a = aMin + (aMax - aMin) * ia / (aSamples - 1);
+            for (int ir = 0; ir < rSamples; ir++) {
+                double r = ir / (double) (rSamples - 1);
+                values[ia * rSamples + ir] = accelerator.force(a, r);
+            }
+        }
+        table = new Table(aMin, aMax, (aSamples - 1) / (aMax - aMin), values);
+        measureError();
+    }
+
+    /**
+     * Compares the table with the wrapped accelerator halfway between the samples.
+     */
+    private void measureError() {
+        double maxError = 0;
+        double maxForce = 0;
+        for (int ia = 0; ia < 2 * aSamples - 1; ia++) {
+            double a = table.aMin + (table.aMax - table.aMin) * ia / (2 * aSamples - 2);
+            // skip r = 0, where force shapes may be undefined
+            for (int ir = 1; ir < 2 * rSamples - 1; ir++) {
+                double r = ir / (double) (2 * rSamples - 2);
+                double exact = accelerator.force(a, r);
+                maxError = Math.max(maxError, Math.abs(force(a, r) - exact));
+                maxForce = Math.max(maxForce, Math.abs(exact));
+            }
+        }
+        this.maxError = maxError;
+        this.maxRelativeError = maxForce == 0 ? 0 : maxError / maxForce;
+    }
+
+    @Override
+    public double force(double a, double r) {
+        final Table t = table;
+
+        double u = (a - t.aMin) * t.aScale;
+        int ia = Math.max(0, Math.min(aSamples - 2, (int) u));
+        double fa = u - ia;
+
+        double v = r * (rSamples - 1);
+        int ir = Math.max(0, Math.min(rSamples - 2, (int) v));
+        double fr = v - ir;
+
+        final double[] values = t.values;
+        int k = ia * rSamples + ir;
+        double low = values[k] + (values[k + 1] - values[k]) * fr;
+        k += rSamples;
+        double high = values[k] + (values[k + 1] - values[k]) * fr;
+        return low + (high - low) * fa;
+    }
+
+    /**
+     * @return the largest absolute difference between the table and the wrapped accelerator
+     * that was found after the table was last built
+     */
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @return {@link #getMaxError()} divided by the largest absolute force that was found
+     */
+    public double getMaxRelativeError() {
+        return maxRelativeError;
+    }
+}
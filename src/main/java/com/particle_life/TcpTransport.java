@@ -0,0 +1,210 @@
+package com.particle_life;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sends messages between workers over TCP, so that the workers can run in separate processes.
+ * <p>Each endpoint listens on its own address and connects to another worker when it first sends a message to it.
+ * Incoming messages are read by one thread per connection and queued,
+ * so sending never waits for the receiver (apart from the socket buffers).
+ * <p>Each message is framed as <code>int channel, int length, byte[length]</code>.
+ */
+public class TcpTransport implements HaloTransport {
+
+    private record Key(int from, int channel) {
+    }
+
+    private final int self;
+    private final InetSocketAddress[] addresses;
+    private final ServerSocket serverSocket;
+    /**
+     * <code>outputs[to]</code> is only accessed while holding <code>sendLocks[to]</code>,
+     * so that connecting to a worker that isn't listening yet doesn't block sending to the others.
+     */
+    private final DataOutputStream[] outputs;
+    private final Object[] sendLocks;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<Key, BlockingQueue<ByteBuffer>> inbox = new ConcurrentHashMap<>();
+    /**
+     * Why the connection from a worker was lost, or <code>null</code>.
+     * Is written by the read threads and polled by {@link #receive(int, int)}.
+     */
+    private final AtomicReferenceArray<IOException> failures;
+    private volatile boolean closed = false;
+
+    /**
+     * How long to keep trying to connect to a worker that isn't listening yet.
+     */
+    public long connectTimeoutMillis = 30000;
+
+    /**
+     * @param self      the worker that this endpoint belongs to
+     * @param addresses the address of each worker, this endpoint listens on <code>addresses[self]</code>
+     */
+    public TcpTransport(int self, InetSocketAddress[] addresses) throws IOException {
+        this(self, addresses, bind(addresses[self]));
+    }
+
+    private TcpTransport(int self, InetSocketAddress[] addresses, ServerSocket serverSocket) {
+        this.self = self;
+        this.addresses = addresses;
+        this.serverSocket = serverSocket;
+        outputs = new DataOutputStream[addresses.length];
+        sendLocks = new Object[addresses.length];
+        for (int k = 0; k < addresses.length; k++) {
+            sendLocks[k] = new Object();
+        }
+        failures = new AtomicReferenceArray<>(addresses.length);
+
+        Thread acceptThread = new Thread(this::acceptConnections, "TcpTransport-" + self + "-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Creates connected endpoints for the workers <code>0 ... workers - 1</code> in this JVM,
+     * listening on free ports of the loopback interface.
+     */
+    public static TcpTransport[] loopback(int workers) throws IOException {
+        ServerSocket[] serverSockets = new ServerSocket[workers];
+        InetSocketAddress[] addresses = new InetSocketAddress[workers];
+        for (int k = 0; k < workers; k++) {
+            serverSockets[k] = bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            addresses[k] = (InetSocketAddress) serverSockets[k].getLocalSocketAddress();
+        }
+        TcpTransport[] transports = new TcpTransport[workers];
+        for (int k = 0; k < workers; k++) {
+            transports[k] = new TcpTransport(k, addresses, serverSockets[k]);
+        }
+        return transports;
+    }
+
+    private static ServerSocket bind(InetSocketAddress address) throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(address);
+        return serverSocket;
+    }
+
+    private void acceptConnections() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                Thread readThread = new Thread(() -> readMessages(socket), "TcpTransport-" + self + "-read");
+                readThread.setDaemon(true);
+                readThread.start();
+            } catch (IOException e) {
+                // the server socket was closed
+                return;
+            }
+        }
+    }
+
+    private void readMessages(Socket socket) {
+        int from = -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            from = in.readInt();
+            while (true) {
+                int channel = in.readInt();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                queue(from, channel).add(ByteBuffer.wrap(bytes));
+            }
+        } catch (IOException e) {
+            if (!closed && from >= 0) {
+                failures.set(from, e);
+            }
+        }
+    }
+
+    private BlockingQueue<ByteBuffer> queue(int from, int channel) {
+        return inbox.computeIfAbsent(new Key(from, channel), key -> new LinkedBlockingQueue<>());
+    }
+
+    @Override
+    public void send(int to, int channel, ByteBuffer message) throws IOException {
+        if (to == self) {
+            queue(self, channel).add(message.slice());
+            return;
+        }
+        byte[] bytes = new byte[message.remaining()];
+        message.duplicate().get(bytes);
+        synchronized (sendLocks[to]) {
+            DataOutputStream out = connect(to);
+            out.writeInt(channel);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.flush();
+        }
+    }
+
+    private DataOutputStream connect(int to) throws IOException {
+        if (outputs[to] != null) return outputs[to];
+
+        long deadline = System.currentTimeMillis() + connectTimeoutMillis;
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(addresses[to]);
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(self);
+                outputs[to] = out;
+                return out;
+            } catch (IOException e) {
+                socket.close();
+                // the other worker may not be listening yet
+                if (closed || System.currentTimeMillis() > deadline) throw e;
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer receive(int from, int channel) throws IOException, InterruptedException {
+        BlockingQueue<ByteBuffer> queue = queue(from, channel);
+        while (true) {
+            ByteBuffer message = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (message != null) return message;
+            if (closed) {
+                throw new IOException("Transport was closed.");
+            }
+            IOException failure = failures.get(from);
+            if (failure != null) {
+                throw new IOException("Lost connection from worker " + from + ".", failure);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.particle_life;
+
+import java.util.Arrays;
+
+/**
+ * Chooses the number of threads and the {@link LoadDistributor#chunksPerThread chunks per thread}
+ * by measuring how long the updates take.
+ * Is used by {@link Physics} if {@link Physics#preferredNumberOfThreads} is 0 or less.
+ * <p>The tuner first hill-climbs the number of threads on the ladder 1, 2, 3, 4, 6, 8, 12, 16, ...
+ * (up to {@link #maxThreads} or the size of the pool, whichever is smaller), then the chunks per thread on the ladder 1, 2, 4, ... 32.
+ * Each configuration is measured for {@link #samplesPerMeasurement} updates, and the median is compared.
+ * A step on the ladder is only taken if it is faster by at least {@link #minImprovement}.
+ * <p>When the number of particles or <code>rmax</code> changes noticeably, or when the update time drifts
+ * away from the tuned time, the tuning starts again from the current configuration.
+ * If a single thread turned out to be fastest for some number of particles,
+ * the tuning starts from a single thread for all smaller numbers of particles (the serial crossover).
+ * <p>All configurations run on the same {@link LoadDistributor} pool, whose size is fixed:
+ * a smaller number of threads only means that fewer workers take chunks.
+ * So the measurements don't include creating or stopping threads.
+ */
+public class ThreadAutotuner {
+
+    private static final int[] CHUNKS_PER_THREAD_LADDER = {1, 2, 4, 8, 16, 32};
+
+    /**
+     * The largest number of threads that is tried, if the pool has that many threads.
+     */
+    public int maxThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * How many updates are measured for each configuration, after one update for warm-up.
+     */
+    public int samplesPerMeasurement = 5;
+    /**
+     * By how much (relative) a configuration must be faster than the best one so far to be accepted.
+     */
+    public double minImprovement = 0.05;
+    /**
+     * How much (relative) the number of particles or <code>rmax</code> must change to start the tuning again.
+     */
+    public double workloadChangeThreshold = 0.1;
+    /**
+     * How much (relative) the median update time may drift away from the tuned time before the tuning starts again.
+     */
+    public double driftThreshold = 0.3;
+
+    private enum Phase {THREADS, SERIAL, CHUNKS, TUNED}
+
+    private Phase phase = null;
+    private HillClimb climb;
+    private int threads = 1;
+    private int chunksPerThread = 8;
+    private int poolThreads = 1;
+    // the result of the thread climb while the serial execution is measured
+    private int parallelThreads;
+    private double parallelNanos;
+
+    // the workload that was tuned for
+    private int tunedParticleCount = -1;
+    private double tunedRmax = -1;
+    private double tunedNanos;
+
+    /**
+     * The largest number of particles for which a single thread was fastest.
+     */
+    private int serialCrossover = 0;
+
+    private long[] samples = new long[0];
+    private int sampleCount = 0;
+    private boolean warmedUp = false;
+
+    /**
+     * Comes up with the configuration for the next update.
+     */
+    void beforeUpdate(int particleCount, double rmax, int currentChunksPerThread, int poolThreads) {
+        if (phase == null) {
+            chunksPerThread = currentChunksPerThread;
+            this.poolThreads = poolThreads;
+            threads = threadLimit();
+            startTuning(particleCount, rmax);
+        } else if (poolThreads != this.poolThreads) {
+            // the simulation now uses another (shared) LoadDistributor
+            this.poolThreads = poolThreads;
+            startTuning(particleCount, rmax);
+        } else if (workloadChanged(particleCount, rmax)) {
+            startTuning(particleCount, rmax);
+        }
+    }
+
+    /**
+     * @param nanos how long the update took with the configuration from {@link #beforeUpdate(int, double, int, int)}
+     */
+    void afterUpdate(long nanos) {
+        if (!warmedUp) {
+            // the first update after a change may still suffer from the previous configuration, e.g. cold caches
+            warmedUp = true;
+            return;
+        }
+        if (samples.length != Math.max(1, samplesPerMeasurement)) {
+            samples = new long[Math.max(1, samplesPerMeasurement)];
+            sampleCount = 0;
+        }
+        samples[sampleCount++] = nanos;
+        if (sampleCount < samples.length) return;
+        sampleCount = 0;
+        double median = median(samples);
+
+        switch (phase) {
+            case THREADS -> {
+                if (climb.report(median, minImprovement)) {
+                    threads = climb.best();
+                    if (threads == 1) {
+                        serialCrossover = Math.max(serialCrossover, tunedParticleCount);
+                        finishTuning(climb.bestTime);
+                    } else if (climb.lowestMeasured > 0) {
+                        // the climb can get stuck on a plateau of similar thread counts,
+                        // so compare with a single thread explicitly
+                        parallelThreads = threads;
+                        parallelNanos = climb.bestTime;
+                        phase = Phase.SERIAL;
+                        threads = 1;
+                    } else {
+                        startChunksTuning(climb.bestTime);
+                    }
+                } else {
+                    threads = climb.current();
+                }
+                warmedUp = false;
+            }
+            case SERIAL -> {
+                if (median <= parallelNanos) {
+                    serialCrossover = Math.max(serialCrossover, tunedParticleCount);
+                    finishTuning(median);
+                } else {
+                    threads = parallelThreads;
+                    startChunksTuning(parallelNanos);
+                }
+                warmedUp = false;
+            }
+            case CHUNKS -> {
+                if (climb.report(median, minImprovement)) {
+                    chunksPerThread = climb.best();
+                    finishTuning(climb.bestTime);
+                } else {
+                    chunksPerThread = climb.current();
+                }
+                warmedUp = false;
+            }
+            case TUNED -> {
+                if (Math.abs(median - tunedNanos) > driftThreshold * tunedNanos) {
+                    startTuning(tunedParticleCount, tunedRmax);
+                }
+            }
+        }
+    }
+
+    private boolean workloadChanged(int particleCount, double rmax) {
+        return Math.abs(particleCount - tunedParticleCount) > workloadChangeThreshold * tunedParticleCount
+                || Math.abs(rmax - tunedRmax) > workloadChangeThreshold * tunedRmax;
+    }
+
+    private void startTuning(int particleCount, double rmax) {
+        tunedParticleCount = particleCount;
+        tunedRmax = rmax;
+        if (particleCount <= serialCrossover) {
+            threads = 1;
+        }
+        int[] ladder = threadLadder(threadLimit());
+        phase = Phase.THREADS;
+        climb = new HillClimb(ladder, nearestIndex(ladder, threads));
+        threads = climb.current();
+        sampleCount = 0;
+        warmedUp = false;
+    }
+
+    /**
+     * @param nanos the time of the current configuration
+     */
+    private void startChunksTuning(double nanos) {
+        if (tunedParticleCount <= serialCrossover) {
+            serialCrossover = tunedParticleCount - 1;
+        }
+        phase = Phase.CHUNKS;
+        climb = new HillClimb(CHUNKS_PER_THREAD_LADDER, nearestIndex(CHUNKS_PER_THREAD_LADDER, chunksPerThread));
+        if (climb.current() == chunksPerThread) {
+            // this configuration was just measured
+            climb.report(nanos, minImprovement);
+        }
+        chunksPerThread = climb.current();
+    }
+
+    private int threadLimit() {
+        return Math.max(1, Math.min(maxThreads, poolThreads));
+    }
+
+    private void finishTuning(double nanos) {
+        phase = Phase.TUNED;
+        climb = null;
+        tunedNanos = nanos;
+        warmedUp = false;
+    }
+
+    /**
+     * @return the number of threads that should be used in the next update
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the chunks per thread that should be used in the next update
+     */
+    public int getChunksPerThread() {
+        return chunksPerThread;
+    }
+
+    /**
+     * @return whether the tuning has finished for the current workload
+     */
+    public boolean isTuned() {
+        return phase == Phase.TUNED;
+    }
+
+    /**
+     * @return the largest number of particles for which a single thread was measured to be fastest so far
+     */
+    public int getSerialCrossover() {
+        return serialCrossover;
+    }
+
+    /**
+     * Forgets all measurements, so that the tuning starts again in the next update.
+     */
+    public void reset() {
+        phase = null;
+        climb = null;
+        serialCrossover = 0;
+        sampleCount = 0;
+        warmedUp = false;
+    }
+
+    static int[] threadLadder(int maxThreads) {
+        int[] ladder = new int[64];
+        int length = 0;
+        // 1, 2, 3, 4, 6, 8, 12, 16, ...
+        for (int power = 1; power > 0 && power <= maxThreads; power *= 2) {
+            ladder[length++] = power;
+            long between = 3L * power / 2;
+            if (power >= 2 && between <= maxThreads) {
+                ladder[length++] = (int) between;
+            }
+        }
+        if (ladder[length - 1] != maxThreads) {
+            ladder[length++] = maxThreads;
+        }
+        return Arrays.copyOf(ladder, length);
+    }
+
+    private static int nearestIndex(int[] ladder, int value) {
+        int best = 0;
+        for (int i = 1; i < ladder.length; i++) {
+            if (Math.abs(ladder[i] - value) < Math.abs(ladder[best] - value)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2.0;
+    }
+
+    /**
+     * Walks up a ladder of values as long as the time improves.
+     * If the first step up doesn't improve the time, walks down instead.
+     */
+    private static final class HillClimb {
+        final int[] values;
+        int index;
+        int bestIndex;
+        int lowestMeasured;
+        double bestTime = Double.NaN;
+        int direction = 1;
+        boolean improved = false;
+
+        HillClimb(int[] values, int startIndex) {
+            this.values = values;
+            this.index = startIndex;
+            this.bestIndex = startIndex;
+            this.lowestMeasured = startIndex;
+        }
+
+        int current() {
+            return values[index];
+        }
+
+        int best() {
+            return values[bestIndex];
+        }
+
+        /**
+         * @param time the measured time of {@link #current()}
+         * @return whether the climb has finished, see {@link #best()}
+         */
+        boolean report(double time, double minImprovement) {
+            lowestMeasured = Math.min(lowestMeasured, index);
+            if (Double.isNaN(bestTime)) {
+                bestTime = time;
+                bestIndex = index;
+                return advance();
+            }
+            if (time < bestTime * (1 - minImprovement)) {
+                bestTime = time;
+                bestIndex = index;
+                improved = true;
+                return advance();
+            }
+            return turn();
+        }
+
+        private boolean advance() {
+            int next = index + direction;
+            if (next < 0 || next >= values.length) return turn();
+            index = next;
+            return false;
+        }
+
+        private boolean turn() {
+            if (direction == 1 && !improved && bestIndex > 0) {
+                direction = -1;
+                index = bestIndex - 1;
+                return false;
+            }
+            index = bestIndex;
+            return true;
+        }
+    }
+}
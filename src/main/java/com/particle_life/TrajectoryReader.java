@@ -0,0 +1,313 @@
+package com.particle_life;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads files written by {@link TrajectoryRecorder}.
+ * <p>When opened, the file is scanned once to find the position of each frame,
+ * so that any frame can be read without decoding the frames before it
+ * (apart from its keyframe, which is cached).
+ * An incomplete last frame (e.g. if the recording was not closed) is ignored.
+ * <p>Example:
+ * <pre>
+ * try (TrajectoryReader reader = new TrajectoryReader(path)) {
+ *     reader.seekKeyframe(reader.getKeyframeCount() - 1);
+ *     TrajectoryReader.Frame frame = null;
+ *     while (reader.hasNext()) {
+ *         frame = reader.next(frame);
+ *         // use frame.x, frame.y, frame.type
+ *     }
+ * }
+ * </pre>
+ */
+public class TrajectoryReader implements AutoCloseable {
+
+    /**
+     * The particles are in the same order in all frames between two keyframes.
+     */
+    public static class Frame {
+        /**
+         * The number of the update in which this frame was recorded, counting from 0.
+         * Is not continuous if frames were dropped.
+         */
+        public long index;
+        public boolean keyframe;
+        public int size;
+        /**
+         * Positions in [0, 1], quantized to steps of 1/65536.
+         * The arrays may be longer than {@link #size}.
+         */
+        public double[] x = new double[0];
+        public double[] y = new double[0];
+        public int[] type = new int[0];
+    }
+
+    private final FileChannel channel;
+    private final int keyframeInterval;
+
+    // one entry per frame:
+    private final long[] offsets;
+    private final long[] frameIndices;
+    private final int[] keyframeOf;
+    private final int frameCount;
+
+    private final int[] keyframes;
+
+    /**
+     * The frame that is read by {@link #next(Frame)}.
+     */
+    private int cursor = 0;
+
+    // the decoded keyframe of the last frame that was read
+    private int cachedKeyframe = -1;
+    private short[] keyX = new short[0];
+    private short[] keyY = new short[0];
+    private int[] keyType = new int[0];
+
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(1024);
+
+    public TrajectoryReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readFully(ByteBuffer.allocate(3 * Integer.BYTES), 0);
+            if (header.getInt() != TrajectoryRecorder.MAGIC) {
+                throw new IOException("Not a trajectory file: " + path);
+            }
+            int version = header.getInt();
+            if (version != TrajectoryRecorder.VERSION) {
+                throw new IOException("Unsupported trajectory version " + version + " (expected " + TrajectoryRecorder.VERSION + ").");
+            }
+            keyframeInterval = header.getInt();
+
+            // scan the frames
+            long[] offsets = new long[64];
+            long[] frameIndices = new long[64];
+            int[] keyframeOf = new int[64];
+            int[] keyframes = new int[16];
+            int frameCount = 0;
+            int keyframeCount = 0;
+            long position = header.capacity();
+            final long fileSize = channel.size();
+            ByteBuffer recordHeader = ByteBuffer.allocate(TrajectoryRecorder.RECORD_HEADER_SIZE);
+            while (position + TrajectoryRecorder.RECORD_HEADER_SIZE <= fileSize) {
+                readFully(recordHeader.clear(), position);
+                byte kind = recordHeader.get();
+                long frameIndex = recordHeader.getLong();
+                recordHeader.getInt();  // number of particles
+                int payloadSize = recordHeader.getInt();
+                long end = position + TrajectoryRecorder.RECORD_HEADER_SIZE + payloadSize;
+                if (end > fileSize) break;
+                if (kind != TrajectoryRecorder.KEYFRAME && kind != TrajectoryRecorder.DELTA_FRAME) {
+                    throw new IOException("Corrupt frame at byte " + position + ": " + path);
+                }
+
+                if (frameCount == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * frameCount);
+                    frameIndices = Arrays.copyOf(frameIndices, 2 * frameCount);
+                    keyframeOf = Arrays.copyOf(keyframeOf, 2 * frameCount);
+                }
+                if (kind == TrajectoryRecorder.KEYFRAME) {
+                    if (keyframeCount == keyframes.length) {
+                        keyframes = Arrays.copyOf(keyframes, 2 * keyframeCount);
+                    }
+                    keyframes[keyframeCount++] = frameCount;
+                } else if (keyframeCount == 0) {
+                    throw new IOException("Trajectory doesn't start with a keyframe: " + path);
+                }
+                offsets[frameCount] = position;
+                frameIndices[frameCount] = frameIndex;
+                keyframeOf[frameCount] = keyframes[keyframeCount - 1];
+                frameCount++;
+
+                position = end;
+            }
+            this.offsets = offsets;
+            this.frameIndices = frameIndices;
+            this.keyframeOf = keyframeOf;
+            this.frameCount = frameCount;
+            this.keyframes = Arrays.copyOf(keyframes, keyframeCount);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of complete frames in the file
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getKeyframeCount() {
+        return keyframes.length;
+    }
+
+    /**
+     * @return the keyframe interval that the file was recorded with
+     */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * @param frame number of the frame in the file, from 0 to {@link #getFrameCount()} - 1
+     * @return the number of the update in which the frame was recorded, see {@link Frame#index}
+     */
+    public long getFrameIndex(int frame) {
+        return frameIndices[frame];
+    }
+
+    /**
+     * @return the number of the frame in the file that will be read by {@link #next(Frame)}
+     */
+    public int getPosition() {
+        return cursor;
+    }
+
+    /**
+     * Makes {@link #next(Frame)} continue with the given frame.
+     *
+     * @param frame number of the frame in the file, from 0 to {@link #getFrameCount()}
+     */
+    public void seek(int frame) {
+        if (frame < 0 || frame > frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " is not in 0 ... " + frameCount + ".");
+        }
+        cursor = frame;
+    }
+
+    /**
+     * Makes {@link #next(Frame)} continue with the given keyframe.
+     *
+     * @param keyframe from 0 to {@link #getKeyframeCount()} - 1
+     */
+    public void seekKeyframe(int keyframe) {
+        seek(keyframes[keyframe]);
+    }
+
+    public boolean hasNext() {
+        return cursor < frameCount;
+    }
+
+    /**
+     * Reads the frame at the current position and advances to the next frame.
+     *
+     * @param dest is re-used if it is not <code>null</code>
+     * @return <code>dest</code>, or a new frame if <code>dest</code> is <code>null</code>
+     */
+    public Frame next(Frame dest) throws IOException {
+        if (!hasNext()) {
+            throw new EOFException("No more frames.");
+        }
+        if (dest == null) {
+            dest = new Frame();
+        }
+        int frame = cursor++;
+
+        int keyframe = keyframeOf[frame];
+        if (keyframe != cachedKeyframe) {
+            decodeKeyframe(keyframe);
+        }
+        final int n = keyX.length;
+        if (dest.x.length < n) {
+            dest.x = new double[n];
+            dest.y = new double[n];
+            dest.type = new int[n];
+        }
+        dest.index = frameIndices[frame];
+        dest.keyframe = frame == keyframe;
+        dest.size = n;
+
+        if (frame == keyframe) {
+            for (int s = 0; s < n; s++) {
+                dest.x[s] = TrajectoryRecorder.dequantize(keyX[s]);
+                dest.y[s] = TrajectoryRecorder.dequantize(keyY[s]);
+            }
+            System.arraycopy(keyType, 0, dest.type, 0, n);
+            return dest;
+        }
+
+        ByteBuffer payload = readRecord(frame);
+        for (int s = 0; s < n; s++) {
+            short dx = (short) TrajectoryRecorder.unzigzag(getVarint(payload));
+            short dy = (short) TrajectoryRecorder.unzigzag(getVarint(payload));
+            dest.x[s] = TrajectoryRecorder.dequantize((short) (keyX[s] + dx));
+            dest.y[s] = TrajectoryRecorder.dequantize((short) (keyY[s] + dy));
+        }
+        System.arraycopy(keyType, 0, dest.type, 0, n);
+        int typeChanges = getVarint(payload);
+        for (int k = 0; k < typeChanges; k++) {
+            int s = getVarint(payload);
+            dest.type[s] = getVarint(payload);
+        }
+        return dest;
+    }
+
+    private void decodeKeyframe(int frame) throws IOException {
+        ByteBuffer payload = readRecord(frame);
+        final int n = payload.getInt(1 + Long.BYTES);
+        payload.position(TrajectoryRecorder.RECORD_HEADER_SIZE);
+        keyX = new short[n];
+        keyY = new short[n];
+        keyType = new int[n];
+        for (int s = 0; s < n; s++) {
+            keyX[s] = payload.getShort();
+            keyY[s] = payload.getShort();
+        }
+        for (int s = 0; s < n; s++) {
+            keyType[s] = getVarint(payload);
+        }
+        cachedKeyframe = frame;
+    }
+
+    /**
+     * @return the whole record including its header, positioned at the start of the payload
+     */
+    private ByteBuffer readRecord(int frame) throws IOException {
+        long start = offsets[frame];
+        long end = frame + 1 < frameCount ? offsets[frame + 1] : channel.size();
+        int size = (int) (end - start);
+        if (recordBuffer.capacity() < size) {
+            recordBuffer = ByteBuffer.allocate(Math.max(size, 2 * recordBuffer.capacity()));
+        }
+        recordBuffer.clear().limit(size);
+        readFully(recordBuffer, start);
+        recordBuffer.position(TrajectoryRecorder.RECORD_HEADER_SIZE);
+        return recordBuffer;
+    }
+
+    private ByteBuffer readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of trajectory file.");
+            }
+            position += read;
+        }
+        return buffer.flip();
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
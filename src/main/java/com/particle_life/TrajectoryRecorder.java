@@ -0,0 +1,408 @@
+package com.particle_life;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records the positions and types of the particles after each {@link Physics#update()} into a file.
+ * Use {@link TrajectoryReader} to read it.
+ * <p>Example:
+ * <pre>
+ * TrajectoryRecorder recorder = new TrajectoryRecorder(path, 8, 60, TrajectoryRecorder.Backpressure.DROP);
+ * physics.addUpdateListener(recorder);
+ * // ... update physics ...
+ * physics.removeUpdateListener(recorder);
+ * recorder.close();
+ * </pre>
+ * <p>On the thread that calls {@link Physics#update()}, the positions are only quantized into one of a fixed number of
+ * frame buffers. A background thread encodes the frames and writes them to the file:
+ * every <code>keyframeInterval</code>-th frame is a keyframe that contains the positions,
+ * the frames in between only contain the differences to the last keyframe as variable-length integers.
+ * <p>Positions are quantized to 16 bits per axis, i.e. to steps of 1/65536.
+ * Only x and y are recorded.
+ * <p>The particles are followed across updates by their {@link ParticleStore#id id}
+ * if {@link Physics#isArrayStorage() array storage} is enabled, and by their {@link Particle} objects otherwise.
+ * A new keyframe is written whenever particles are added or removed.
+ */
+public class TrajectoryRecorder implements Physics.UpdateListener, AutoCloseable {
+
+    /**
+     * What happens if all frame buffers are waiting to be written when a new frame arrives.
+     */
+    public enum Backpressure {
+        /**
+         * The new frame is not recorded, so the update thread never waits.
+         */
+        DROP,
+        /**
+         * The update thread waits until a frame buffer is free, so every update is recorded.
+         */
+        BLOCK
+    }
+
+    static final int MAGIC = 0x504C5452;  // "PLTR"
+    static final int VERSION = 1;
+    static final byte KEYFRAME = 0;
+    static final byte DELTA_FRAME = 1;
+    /**
+     * kind (byte), frame index (long), number of particles (int), payload length (int)
+     */
+    static final int RECORD_HEADER_SIZE = 1 + Long.BYTES + 2 * Integer.BYTES;
+
+    private static final class FrameBuffer {
+        long frame;
+        int size;
+        int particleSetVersion;
+        short[] x = new short[0];
+        short[] y = new short[0];
+        int[] type = new int[0];
+        /**
+         * Only used with array storage.
+         */
+        int[] id = null;
+        /**
+         * Only used without array storage.
+         */
+        Particle[] particles = null;
+
+        void fill(Physics physics, long frame) {
+            final ParticleStore s = physics.getParticleStore();
+            final int n = physics.getParticleCount();
+            if (x.length < n) {
+                x = new short[n];
+                y = new short[n];
+                type = new int[n];
+            }
+            if (s != null) {
+                if (id == null || id.length < n) id = new int[n];
+                particles = null;
+                for (int i = 0; i < n; i++) {
+                    x[i] = quantize(s.x[i]);
+                    y[i] = quantize(s.y[i]);
+                }
+                System.arraycopy(s.type, 0, type, 0, n);
+                System.arraycopy(s.id, 0, id, 0, n);
+            } else {
+                if (particles == null || particles.length < n) particles = new Particle[n];
+                id = null;
+                final Particle[] ps = physics.particles;
+                for (int i = 0; i < n; i++) {
+                    Particle p = ps[i];
+                    x[i] = quantize(p.position.x);
+                    y[i] = quantize(p.position.y);
+                    type[i] = p.type;
+                    particles[i] = p;
+                }
+            }
+            this.frame = frame;
+            this.size = n;
+            this.particleSetVersion = physics.getParticleSetVersion();
+        }
+    }
+
+    private final Backpressure backpressure;
+    private final int keyframeInterval;
+    private final BlockingQueue<FrameBuffer> freeBuffers;
+    private final BlockingQueue<FrameBuffer> filledBuffers;
+    private final FrameBuffer endOfStream = new FrameBuffer();
+    private final DataOutputStream out;
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+    private volatile IOException writeError = null;
+
+    // statistics:
+    private long updates = 0;
+    private volatile long droppedFrames = 0;
+    private volatile long writtenFrames = 0;
+    private volatile long writtenKeyframes = 0;
+
+    // only used by the writer thread:
+    private final Encoder encoder = new Encoder();
+
+    /**
+     * Creates the file and starts the writer thread.
+     *
+     * @param bufferCount      how many frames can wait to be written, at least 1
+     * @param keyframeInterval every how many written frames a keyframe is written, at least 1
+     */
+    public TrajectoryRecorder(Path path, int bufferCount, int keyframeInterval, Backpressure backpressure) throws IOException {
+        if (bufferCount < 1 || keyframeInterval < 1) {
+            throw new IllegalArgumentException("bufferCount and keyframeInterval must be at least 1.");
+        }
+        this.backpressure = backpressure;
+        this.keyframeInterval = keyframeInterval;
+        freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        filledBuffers = new ArrayBlockingQueue<>(bufferCount + 1);  // +1 for endOfStream
+        for (int i = 0; i < bufferCount; i++) {
+            freeBuffers.add(new FrameBuffer());
+        }
+
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(keyframeInterval);
+
+        writerThread = new Thread(this::writeFrames, "TrajectoryRecorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void onUpdate(Physics physics) {
+        if (closed) return;
+        long frame = updates++;
+
+        FrameBuffer buffer;
+        if (backpressure == Backpressure.DROP) {
+            buffer = freeBuffers.poll();
+        } else {
+            try {
+                buffer = freeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                buffer = null;
+            }
+        }
+        if (buffer == null) {
+            droppedFrames++;
+            return;
+        }
+
+        buffer.fill(physics, frame);
+        filledBuffers.add(buffer);
+    }
+
+    private void writeFrames() {
+        while (true) {
+            FrameBuffer buffer;
+            try {
+                buffer = filledBuffers.take();
+            } catch (InterruptedException e) {
+                continue;  // only close() ends this thread
+            }
+            if (buffer == endOfStream) return;
+
+            // after an error, the buffers are still recycled so that the update thread doesn't block
+            if (writeError == null) {
+                try {
+                    encoder.write(buffer);
+                } catch (IOException e) {
+                    writeError = e;
+                } catch (RuntimeException e) {
+                    writeError = new IOException("Could not encode frame " + buffer.frame + ".", e);
+                }
+            }
+            freeBuffers.add(buffer);
+        }
+    }
+
+    /**
+     * Keeps the last keyframe in the order of the particles in that keyframe ("slots").
+     */
+    private final class Encoder {
+        private int keySize = -1;
+        private int keyParticleSetVersion;
+        private boolean keyUsesIds;
+        private int framesSinceKeyframe;
+        private short[] keyX = new short[0];
+        private short[] keyY = new short[0];
+        private int[] keyType = new int[0];
+        private final IdentityHashMap<Particle, Integer> slots = new IdentityHashMap<>();
+
+        // the current frame, in slot order
+        private short[] slotX = new short[0];
+        private short[] slotY = new short[0];
+        private int[] slotType = new int[0];
+
+        private byte[] payload = new byte[1024];
+        private int payloadSize;
+
+        void write(FrameBuffer b) throws IOException {
+            final int n = b.size;
+            final boolean usesIds = b.id != null;
+            if (slotX.length < n) {
+                slotX = new short[n];
+                slotY = new short[n];
+                slotType = new int[n];
+            }
+
+            boolean keyframe = n != keySize || framesSinceKeyframe >= keyframeInterval
+                    || usesIds != keyUsesIds || b.particleSetVersion != keyParticleSetVersion;
+            if (!keyframe && !scatter(b)) {
+                keyframe = true;  // particles were replaced
+            }
+            if (keyframe) {
+                slots.clear();
+                if (!usesIds) {
+                    for (int i = 0; i < n; i++) {
+                        slots.put(b.particles[i], i);
+                    }
+                }
+                scatter(b);
+            }
+
+            payloadSize = 0;
+            if (keyframe) {
+                for (int s = 0; s < n; s++) {
+                    putShort(slotX[s]);
+                    putShort(slotY[s]);
+                }
+                for (int s = 0; s < n; s++) {
+                    putVarint(slotType[s]);
+                }
+                keyX = Arrays.copyOf(slotX, n);
+                keyY = Arrays.copyOf(slotY, n);
+                keyType = Arrays.copyOf(slotType, n);
+                keySize = n;
+                keyParticleSetVersion = b.particleSetVersion;
+                keyUsesIds = usesIds;
+                framesSinceKeyframe = 0;
+            } else {
+                for (int s = 0; s < n; s++) {
+                    // the difference wraps around at 16 bits, just like the positions in a wrapping world
+                    putVarint(zigzag((short) (slotX[s] - keyX[s])));
+                    putVarint(zigzag((short) (slotY[s] - keyY[s])));
+                }
+                int typeChanges = 0;
+                for (int s = 0; s < n; s++) {
+                    if (slotType[s] != keyType[s]) typeChanges++;
+                }
+                putVarint(typeChanges);
+                for (int s = 0; s < n && typeChanges > 0; s++) {
+                    if (slotType[s] != keyType[s]) {
+                        putVarint(s);
+                        putVarint(slotType[s]);
+                        typeChanges--;
+                    }
+                }
+            }
+            framesSinceKeyframe++;
+
+            out.writeByte(keyframe ? KEYFRAME : DELTA_FRAME);
+            out.writeLong(b.frame);
+            out.writeInt(n);
+            out.writeInt(payloadSize);
+            out.write(payload, 0, payloadSize);
+
+            writtenFrames++;
+            if (keyframe) writtenKeyframes++;
+        }
+
+        /**
+         * Copies the frame into slot order.
+         *
+         * @return <code>false</code> if a particle has no slot
+         */
+        private boolean scatter(FrameBuffer b) {
+            for (int i = 0; i < b.size; i++) {
+                int s;
+                if (b.id != null) {
+                    s = b.id[i];
+                } else {
+                    Integer slot = slots.get(b.particles[i]);
+                    if (slot == null) return false;
+                    s = slot;
+                }
+                slotX[s] = b.x[i];
+                slotY[s] = b.y[i];
+                slotType[s] = b.type[i];
+            }
+            return true;
+        }
+
+        private void ensurePayloadCapacity(int additionalBytes) {
+            if (payloadSize + additionalBytes > payload.length) {
+                payload = Arrays.copyOf(payload, Math.max(2 * payload.length, payloadSize + additionalBytes));
+            }
+        }
+
+        private void putShort(short value) {
+            ensurePayloadCapacity(2);
+            payload[payloadSize++] = (byte) (value >> 8);
+            payload[payloadSize++] = (byte) value;
+        }
+
+        private void putVarint(int value) {
+            ensurePayloadCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                payload[payloadSize++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            payload[payloadSize++] = (byte) value;
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @param value coordinate in [0, 1]
+     */
+    static short quantize(double value) {
+        int q = (int) (value * 65536);
+        return (short) Math.max(0, Math.min(65535, q));
+    }
+
+    /**
+     * @return the center of the quantization step
+     */
+    static double dequantize(short value) {
+        return ((value & 0xFFFF) + 0.5) / 65536;
+    }
+
+    /**
+     * @return the number of updates that were not recorded because all frame buffers were in use
+     * (only with {@link Backpressure#DROP})
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return the number of frames that were written so far, including keyframes
+     */
+    public long getWrittenFrames() {
+        return writtenFrames;
+    }
+
+    public long getWrittenKeyframes() {
+        return writtenKeyframes;
+    }
+
+    /**
+     * Writes all remaining frames and closes the file.
+     * Remove this recorder from the {@link Physics} before calling this,
+     * frames of later updates are ignored.
+     *
+     * @throws IOException if writing any of the frames failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        filledBuffers.add(endOfStream);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the remaining frames.");
+        }
+        out.close();
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.particle_life;
+
+/**
+ * Computes the {@link ParticleLifeAccelerator} force shape for many neighbors at once,
+ * using SIMD instructions.
+ * <p>The implementation uses the incubating Vector API ({@code jdk.incubator.vector}),
+ * so it lives in a separate source set that is only compiled with {@code -PvectorApi},
+ * and it only works if the JVM was started with {@code --add-modules jdk.incubator.vector}.
+ * {@link #load()} returns <code>null</code> if it is not available.
+ */
+interface VectorForceKernel {
+
+    /**
+     * Adds the acceleration of a particle at (px, py) caused by the particles
+     * <code>start ... stop - 1</code> to <code>out[0]</code> and <code>out[1]</code>.
+     * The acceleration is relative to rmax, like the return value of {@link Accelerator#accelerate}.
+     * Particles at distance 0 or further away than <code>rmax</code> are skipped.
+     *
+     * @param matrix    the matrix in row-major order
+     * @param matrixRow the index in <code>matrix</code> where the row for the type of the particle starts
+     */
+    void accumulate(double[] x, double[] y, int[] type, int start, int stop,
+                    double px, double py, double[] matrix, int matrixRow,
+                    double rmax, double beta, boolean wrap, double[] out);
+
+    /**
+     * @return the SIMD kernel, or <code>null</code> if it is not available
+     */
+    static VectorForceKernel load() {
+        try {
+            return (VectorForceKernel) Class.forName("com.particle_life.SimdForceKernel")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
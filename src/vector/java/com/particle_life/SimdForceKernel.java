@@ -0,0 +1,90 @@
+package com.particle_life;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of {@link VectorForceKernel} with the Vector API.
+ * Is loaded via reflection, see {@link VectorForceKernel#load()}.
+ */
+final class SimdForceKernel implements VectorForceKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void accumulate(double[] x, double[] y, int[] type, int start, int stop,
+                           double px, double py, double[] matrix, int matrixRow,
+                           double rmax, double beta, boolean wrap, double[] out) {
+
+        final double rmaxSquared = rmax * rmax;
+        final double invRmax = 1 / rmax;
+        final double invBeta = 1 / beta;
+        final double outerSlope = -1 / (1 - beta);
+
+        DoubleVector sumX = DoubleVector.zero(SPECIES);
+        DoubleVector sumY = DoubleVector.zero(SPECIES);
+
+        int j = start;
+        int upperBound = start + SPECIES.loopBound(stop - start);
+        for (; j < upperBound; j += SPECIES.length()) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(px);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(py);
+            if (wrap) {
+                dx = wrapConnection(dx);
+                dy = wrapConnection(dy);
+            }
+
+            DoubleVector distanceSquared = dx.mul(dx).add(dy.mul(dy));
+            // only particles that are closer than or at rmax
+            VectorMask<Double> mask = distanceSquared.compare(VectorOperators.LE, rmaxSquared)
+                    .and(distanceSquared.compare(VectorOperators.NE, 0));
+            if (!mask.anyTrue()) continue;
+
+            DoubleVector a = DoubleVector.fromArray(SPECIES, matrix, matrixRow, type, j);
+            DoubleVector r = distanceSquared.sqrt().mul(invRmax);
+
+            // see ParticleLifeAccelerator.force()
+            DoubleVector inner = r.mul(invBeta).sub(1);
+            DoubleVector outer = a.mul(r.mul(-2).add(1 + beta).abs().mul(outerSlope).add(1));
+            DoubleVector f = outer.blend(inner, r.compare(VectorOperators.LT, beta));
+
+            // (d / rmax) * f / r
+            DoubleVector scale = f.div(r.mul(rmax));
+            sumX = sumX.add(dx.mul(scale), mask);
+            sumY = sumY.add(dy.mul(scale), mask);
+        }
+
+        double ax = sumX.reduceLanes(VectorOperators.ADD);
+        double ay = sumY.reduceLanes(VectorOperators.ADD);
+
+        // remaining particles
+        for (; j < stop; j++) {
+            double dx = x[j] - px;
+            double dy = y[j] - py;
+            if (wrap) {
+                dx = Range.wrapConnection(dx);
+                dy = Range.wrapConnection(dy);
+            }
+            double distanceSquared = dx * dx + dy * dy;
+            if (distanceSquared != 0 && distanceSquared <= rmaxSquared) {
+                double r = Math.sqrt(distanceSquared) * invRmax;
+                double scale = ParticleLifeAccelerator.force(matrix[matrixRow + type[j]], r, beta) / (r * rmax);
+                ax += dx * scale;
+                ay += dy * scale;
+            }
+        }
+
+        out[0] += ax;
+        out[1] += ay;
+    }
+
+    /**
+     * Vectorized version of {@link Range#wrapConnection(double)}.
+     */
+    private static DoubleVector wrapConnection(DoubleVector d) {
+        d = d.add(1, d.compare(VectorOperators.LT, -0.5));
+        return d.sub(1, d.compare(VectorOperators.GE, 0.5));
+    }
+}